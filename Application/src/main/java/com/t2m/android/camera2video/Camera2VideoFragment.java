@@ -57,12 +57,14 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.Toast;
 
+import com.t2m.android.camera2video.dataflow.node.DataNode;
 import com.t2m.android.camera2video.dataflow.nodes.H264EncoderNode;
 import com.t2m.android.camera2video.dataflow.nodes.M4aEncoderNode;
 import com.t2m.android.camera2video.dataflow.nodes.AudioRecordNode;
 import com.t2m.android.camera2video.dataflow.nodes.MediaMuxerNode;
-import com.t2m.android.camera2video.dataflow.path.AudioDataPath;
+import com.t2m.android.camera2video.dataflow.path.DataPath;
 import com.t2m.android.camera2video.dataflow.task.DataFlowTask;
+import com.t2m.android.camera2video.dataflow.task.GraphBuilder;
 
 import java.io.File;
 import java.io.IOException;
@@ -84,6 +86,7 @@ public class Camera2VideoFragment extends Fragment
     public static final String TAG = "Camera2VideoFragment";
     private static final int REQUEST_VIDEO_PERMISSIONS = 1;
     private static final String FRAGMENT_DIALOG = "dialog";
+    private static final long STOP_TIMEOUT_MS = 2000;
 
     private static final String[] VIDEO_PERMISSIONS = {
             Manifest.permission.CAMERA,
@@ -482,6 +485,18 @@ public class Camera2VideoFragment extends Fragment
         try {
             mCameraOpenCloseLock.acquire();
             closePreviewSession();
+            // warm task is not reused with a new camera session. stopped in background thread,
+            // which is joined by stopBackgroundThread()
+            if (mBackgroundHandler != null) {
+                mBackgroundHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        stopRecord(true);
+                    }
+                });
+            } else {
+                stopRecord(true);
+            }
             if (null != mCameraDevice) {
                 mCameraDevice.close();
                 mCameraDevice = null;
@@ -645,11 +660,33 @@ public class Camera2VideoFragment extends Fragment
         if (null == mCameraDevice || !mTextureView.isAvailable() || null == mPreviewSize) {
             return;
         }
+        closePreviewSession();
+        // codecs, AudioRecord and muxer are created in background thread, not to block UI
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                startRecordSession();
+            }
+        });
+    }
+
+    /**
+     * prepare record task if not warm, and start capture session with its input surface.
+     * Called in background thread, as all other calls of record task.
+     */
+    private void startRecordSession() {
+        if (null == mCameraDevice) {
+            return;
+        }
         try {
-            closePreviewSession();
             //setUpMediaRecorder();
             //setUpVideoEncoder();
-            setupMediaEncoder();
+            if (mRecordTask != null && mRecordTask.getResult() != DataFlowTask.RESULT_NOT_FINISHED) {
+                stopRecord(true); // warm task finished by error
+            }
+            if (mRecordTask == null) {
+                setupMediaEncoder(); // otherwise task is kept warm from last recording
+            }
             SurfaceTexture texture = mTextureView.getSurfaceTexture();
             assert texture != null;
             texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
@@ -681,17 +718,18 @@ public class Camera2VideoFragment extends Fragment
                 public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
                     mPreviewSession = cameraCaptureSession;
                     updatePreview();
+
+                    // Start recording, in background thread
+                    //mVideoEncoder.startRecording();
+                    //startMediaCodecRecording();
+                    startRecording();
+
                     getActivity().runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
                             // UI
                             mButtonVideo.setText(R.string.stop);
                             mIsRecordingVideo = true;
-
-                            // Start recording
-                            //mVideoEncoder.startRecording();
-                            //startMediaCodecRecording();
-                            startRecording();
                         }
                     });
                 }
@@ -720,71 +758,93 @@ public class Camera2VideoFragment extends Fragment
 
         // create node
         try {
-            mVideoEncoderNode = (H264EncoderNode) new H264EncoderNode("video/avc", 1920,1080, 10000000, 30).open();
+            mVideoEncoderNode = (H264EncoderNode) new H264EncoderNode("video/avc", 1920,1080, 10000000, 30).setAsync(true).open();
         } catch (IOException e) {
             e.printStackTrace();
         }
         AudioRecordNode recordNode = new AudioRecordNode(MediaRecorder.AudioSource.MIC, 48000, 2, AudioFormat.ENCODING_PCM_16BIT);
         mAudioEncoderNode = new  M4aEncoderNode();
-        MediaMuxerNode muxerNode = new MediaMuxerNode(mNextVideoAbsolute.toString());
-
-        // init path
-        AudioDataPath pathVEn2Mu = new AudioDataPath("VEn->Mu", mVideoEncoderNode.getBufferedReader(), muxerNode.getDirectWriter());
-        AudioDataPath pathRe2St = new AudioDataPath("Re->AEn", recordNode.getBufferedReader(), mAudioEncoderNode.getBufferedWriter());
-        AudioDataPath pathAEn2Mu = new AudioDataPath("AEn->Mu", mAudioEncoderNode.getBufferedReader(), muxerNode.getDirectWriter());
-        // create task
-        mRecordTask = new DataFlowTask("RecordTask");
-        mRecordTask
-                .addNode(recordNode)
-                .addNode(mAudioEncoderNode)
-                .addNode(mVideoEncoderNode)
-                .addNode(muxerNode);
-        mRecordTask
-                .addPath(pathRe2St)
-                .addPath(pathAEn2Mu)
-                .addPath(pathVEn2Mu);
+        mAudioEncoderNode.setAsync(true);
+        recordNode.fitBlockSize(mAudioEncoderNode.getMaxInputSize());
+        mRecordNode = recordNode;
+        mMuxerNode = new MediaMuxerNode(mNextVideoAbsolute.toString());
+
+        // create task. ports of paths are chosen by builder
+        mRecordTask = new GraphBuilder("RecordTask")
+                .connect("Re->AEn", recordNode, mAudioEncoderNode)
+                .connect("AEn->Mu", mAudioEncoderNode, mMuxerNode)
+                .connect("VEn->Mu", mVideoEncoderNode, mMuxerNode)
+                .build()
+                .setListener(mRecordListener);
+
+        // open nodes now, so that recording starts without delay
+        try {
+            mRecordTask.prepare();
+        } catch (IOException e) {
+            Log.e(TAG, "prepare record task failed", e);
+        }
 
 
 
+        // second recording shares the capture by taps. first task should read from
+        // recordNode.newTap() too, so that each task gets all samples and capture is closed by
+        // the last task finished.
 //        mVideoEncoderNode1 = new H264EncoderNode("video/avc", 720,480, 10000000, 30);
 //        mAudioEncoderNode1 = new  M4aEncoderNode();
 //        MediaMuxerNode muxerNode1 = new MediaMuxerNode(mNextVideoAbsolute2.toString());
-////        AudioRecordNode recordNode1 = new AudioRecordNode(MediaRecorder.AudioSource.MIC, 48000, 2, AudioFormat.ENCODING_PCM_16BIT);
 //
-//        // init path
-//        AudioDataPath pathVEn2Mu1 = new AudioDataPath("VEn->Mu--1", mVideoEncoderNode1.getBufferedReader(), muxerNode1.getDirectWriter());
-//        AudioDataPath pathRe2St1 = new AudioDataPath("Re->AEn--1", recordNode.getBufferedReader(), mAudioEncoderNode1.getBufferedWriter());
-//        AudioDataPath pathAEn2Mu1 = new AudioDataPath("AEn->Mu--1", mAudioEncoderNode1.getBufferedReader(), muxerNode1.getDirectWriter());
 //        // create task
-//        mRecordTask1 = new DataFlowTask("RecordTask1");
-//        mRecordTask1
-//                .addNode(recordNode)
-//                .addNode(mAudioEncoderNode1)
-//                .addNode(mVideoEncoderNode1)
-//                .addNode(muxerNode1);
-//        mRecordTask1
-//                .addPath(pathRe2St1)
-//                .addPath(pathAEn2Mu1)
-//                .addPath(pathVEn2Mu1);
+//        mRecordTask1 = new GraphBuilder("RecordTask1")
+//                .connect("Re->AEn--1", recordNode.newTap(), mAudioEncoderNode1)
+//                .connect("AEn->Mu--1", mAudioEncoderNode1, muxerNode1)
+//                .connect("VEn->Mu--1", mVideoEncoderNode1, muxerNode1)
+//                .build();
     }
 
+    // record task and its nodes are used in background thread only
     private DataFlowTask mRecordTask;
+    private final DataFlowTask.Listener mRecordListener = new DataFlowTask.SimpleListener() {
+        @Override
+        public void onNodeOpened(DataFlowTask task, DataNode node, long openNs) {
+            Log.i(TAG, "record node opened: " + node.getClass().getSimpleName() + ", " + openNs / 1000000 + "ms");
+        }
+
+        @Override
+        public void onFirstSample(DataFlowTask task, DataPath path, long elapsedNs) {
+            Log.i(TAG, "record first sample: " + path.getName() + ", " + elapsedNs / 1000000 + "ms");
+        }
+
+        @Override
+        public void onError(DataFlowTask task, String source, Exception e) {
+            Log.e(TAG, "record error: " + source, e);
+        }
+
+        @Override
+        public void onStopped(DataFlowTask task, boolean drained, long latencyNs, int lostSamples) {
+            Log.i(TAG, "record stopped: " + (drained ? "drained" : "canceled") + ", " + latencyNs / 1000000
+                    + "ms, lost samples: " + lostSamples);
+        }
+    };
+    private AudioRecordNode mRecordNode;
     private M4aEncoderNode mAudioEncoderNode;
     private H264EncoderNode mVideoEncoderNode;
+    private MediaMuxerNode mMuxerNode;
     private DataFlowTask mRecordTask1;
     private M4aEncoderNode mAudioEncoderNode1;
     private H264EncoderNode mVideoEncoderNode1;
 
     public void stopRecord(boolean wait) {
         if (mRecordTask != null) {
-            mRecordTask.cancel();
-
-            // wait thread stopped
             if (wait) {
-                mRecordTask.waitForFinish();
+                // drain samples captured already, so that output is finalized
+                mRecordTask.stop(STOP_TIMEOUT_MS);
+            } else {
+                mRecordTask.cancel();
             }
 
             mRecordTask = null;
+            mRecordNode = null;
+            mMuxerNode = null;
         }
 //        if (mRecordTask1 != null) {
 //            mRecordTask1.cancel();
@@ -800,11 +860,47 @@ public class Camera2VideoFragment extends Fragment
 
     private void startRecording() {
         Log.v(TAG, "startRecording:");
+        if (mRecordTask.isAlive()) {
+            // task is warm. continue into a new file
+            if (mNextVideoAbsolute == null) {
+                mNextVideoAbsolute = getVideoFile(getActivity());
+            }
+            try {
+                mMuxerNode.switchOutput(mNextVideoAbsolute.toString());
+            } catch (IOException e) {
+                Log.e(TAG, "switch output failed", e);
+            }
+            mRecordNode.resume();
+            mVideoEncoderNode.setSuspended(false);
+            mVideoEncoderNode.requestSyncFrame();
+            mMuxerNode.resume();
+            return;
+        }
+
         // start task
         mRecordTask.start();
 //        mRecordTask1.start();
     }
 
+    /**
+     * save current file, but keep task warm for next recording. audio capture is paused too, so
+     * microphone is released and audio path waits without cpu until next recording.
+     */
+    private void pauseRecord() {
+        if (mRecordTask == null) {
+            return;
+        }
+
+        mMuxerNode.pause();
+        mRecordNode.pause();
+        mVideoEncoderNode.setSuspended(true);
+        try {
+            mMuxerNode.finishOutput();
+        } catch (IOException e) {
+            Log.e(TAG, "finish output failed", e);
+        }
+    }
+
     private void closePreviewSession() {
         if (mPreviewSession != null) {
             mPreviewSession.close();
@@ -819,7 +915,12 @@ public class Camera2VideoFragment extends Fragment
         // Stop recording
         //mVideoEncoder.stopRecording();
         //mMediaRecorder.reset();
-        stopRecord(true);
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                pauseRecord();
+            }
+        });
         Activity activity = getActivity();
         if (null != activity) {
             Toast.makeText(activity, "Video saved: " + mNextVideoAbsolutePath,
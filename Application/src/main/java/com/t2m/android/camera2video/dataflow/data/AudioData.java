@@ -3,7 +3,6 @@ package com.t2m.android.camera2video.dataflow.data;
 
 import android.media.MediaCodec;
 import android.media.MediaFormat;
-import android.util.Log;
 
 import java.nio.ByteBuffer;
 
@@ -11,100 +10,126 @@ import java.nio.ByteBuffer;
  * AudioData
  */
 public class AudioData {
-    private static final String TAG = AudioData.class.getSimpleName();
-
     public static final String KEY_DATA_BYTE_BUFFER = "key-data-byte-buffer";
     public static final String KEY_DATA_BUFFER_INFO = "key-data-buffer-info";
     public static final String KEY_CONFIG_MEDIA_FORMAT = "key-config-media-format";
 
+    private static final int DEF_BUFF_SIZE = 512 * 1024;
+
     public static void createBuff(Data data) {
-        byte[] buff = new byte[512*1024];
-        setBuffer(data, ByteBuffer.wrap(buff, 0, buff.length));
-        setBufferInfo(data, new MediaCodec.BufferInfo());
+        createBuff(data, 0);
+    }
+
+    /**
+     * set a buffer from {@link BufferPool#getDefault()} to data.
+     * should be released by {@link #releaseBuff(Data)}.
+     * @param data data
+     * @param size buffer size, 0 if unknown
+     */
+    public static void createBuff(Data data, int size) {
+        ByteBuffer buffer = BufferPool.getDefault().acquire(size > 0 ? size : DEF_BUFF_SIZE);
+        if (buffer == null) {
+            throw new IllegalStateException("no buffer available. " + BufferPool.getDefault());
+        }
+        setBuffer(data, buffer);
+        data.setInfo(0, 0, 0, 0);
+    }
+
+    /**
+     * return buffer created by {@link #createBuff(Data, int)}
+     * @param data data
+     */
+    public static void releaseBuff(Data data) {
+        ByteBuffer buffer = data.getBuffer();
+        if (buffer != null) {
+            BufferPool.getDefault().release(buffer);
+            data.setBuffer(null);
+        }
     }
 
     public static void copyData(Data fromData, Data toData) {
-        ByteBuffer writeBuffer = AudioData.getBuffer(toData);
+        ByteBuffer writeBuffer = toData.getBuffer();
         assert writeBuffer != null;
-        MediaCodec.BufferInfo writeInfo = AudioData.getBufferInfo(toData);
-        assert writeInfo != null;
-        ByteBuffer readBuffer = AudioData.getBuffer(fromData);
-        assert readBuffer != null;
-        MediaCodec.BufferInfo readInfo = AudioData.getBufferInfo(fromData);
-        assert readInfo != null;
 
         if (AudioData.hasConfigFormat(fromData)) {
-            AudioData.setConfigFormat(toData, AudioData.getConfigFormat(fromData));
-        } else {
-            writeBuffer.clear();
-            writeBuffer.put(readBuffer);
+            toData.setConfigFormat(fromData.getConfigFormat());
+        }
+
+        // copy valid range only. bulk put, so direct buffers are copied natively without array.
+        int offset = fromData.getOffset();
+        int size = fromData.getSize();
+        writeBuffer.clear();
+        if (size == 0) { // e.g. eos, no payload to copy
+            toData.setInfo(0, 0, fromData.getPts(), fromData.getFlags());
+            return;
         }
-        writeInfo.offset = 0;
-        writeInfo.size = readInfo.size;
-        writeInfo.presentationTimeUs = readInfo.presentationTimeUs;
-        writeInfo.flags = readInfo.flags;
+        ByteBuffer readBuffer = fromData.getBuffer();
+        assert readBuffer != null;
+        readBuffer.limit(readBuffer.capacity());
+        readBuffer.position(offset);
+        readBuffer.limit(offset + size);
+        writeBuffer.put(readBuffer);
+
+        toData.setInfo(0, size, fromData.getPts(), fromData.getFlags());
     }
 
     public static ByteBuffer setBuffer(Data data, ByteBuffer buffer) {
-        return data.set(KEY_DATA_BYTE_BUFFER, buffer);
+        return data.setBuffer(buffer);
     }
 
     public static ByteBuffer getBuffer(Data data) {
-        return data.get(KEY_DATA_BYTE_BUFFER, null);
+        return data.getBuffer();
     }
 
+    /**
+     * copy info into data
+     * @param data data
+     * @param info info
+     * @return info
+     */
     public static MediaCodec.BufferInfo setBufferInfo(Data data, MediaCodec.BufferInfo info) {
-        return data.set(KEY_DATA_BUFFER_INFO, info);
+        data.setInfo(info);
+        return info;
     }
 
+    /**
+     * @param data data
+     * @return info attached to data. changes to it are seen by data as before, but every access of
+     * data then goes through it, so prefer typed accessors of {@link Data} on hot path.
+     */
     public static MediaCodec.BufferInfo getBufferInfo(Data data) {
-        return data.get(KEY_DATA_BUFFER_INFO, null);
+        return data.getAttachedInfo();
     }
 
     public static MediaFormat setConfigFormat(Data data, MediaFormat format) {
-        return data.set(KEY_CONFIG_MEDIA_FORMAT, format);
+        return data.setConfigFormat(format);
     }
 
     public static MediaFormat getConfigFormat(Data data) {
-        return data.get(KEY_CONFIG_MEDIA_FORMAT, null);
+        return data.getConfigFormat();
     }
 
     public static boolean hasConfigFormat(Data data) {
-        return data.containsKey(KEY_CONFIG_MEDIA_FORMAT);
+        return data.getConfigFormat() != null;
     }
 
     public static void markConfig(Data data) {
-        MediaCodec.BufferInfo info = data.get(KEY_DATA_BUFFER_INFO, null);
-        if (info != null) {
-            info.flags |= MediaCodec.BUFFER_FLAG_CODEC_CONFIG;
-        } else {
-            Log.e(TAG, "setConfig()# failed due to info == null");
-        }
+        data.setFlags(data.getFlags() | MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
     }
 
     public static boolean isConfig(Data data) {
-        MediaCodec.BufferInfo info = data.get(KEY_DATA_BUFFER_INFO, null);
-        return info != null && ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0);
+        return (data.getFlags() & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
     }
 
     public static void markEof(Data data) {
-        MediaCodec.BufferInfo info = data.get(KEY_DATA_BUFFER_INFO, null);
-        if (info != null) {
-            info.flags |= MediaCodec.BUFFER_FLAG_END_OF_STREAM;
-        } else {
-            Log.e(TAG, "markEof()# failed due to info == null");
-        }
+        data.setFlags(data.getFlags() | MediaCodec.BUFFER_FLAG_END_OF_STREAM);
     }
 
     public static boolean isEof(Data data) {
-        MediaCodec.BufferInfo info = data.get(KEY_DATA_BUFFER_INFO, null);
-        return info != null && (info.flags == MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        return data.getFlags() == MediaCodec.BUFFER_FLAG_END_OF_STREAM;
     }
 
     public static void clearFlags(Data data) {
-        MediaCodec.BufferInfo info = data.get(KEY_DATA_BUFFER_INFO, null);
-        if (info != null) {
-            info.flags = 0;
-        }
+        data.setFlags(0);
     }
 }
@@ -0,0 +1,274 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.data;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * BufferPool<br>
+ * Size classed pool of ByteBuffer. Each class has buffers of a power of 2 size, sliced from slabs
+ * allocated on demand and kept for reuse. Allocation is limited by a max buffer count per class
+ * and a global memory budget, {@link #acquire(int)} returns null if a limit is reached.<br>
+ * Buffers returned by {@link #acquire(int)} should be returned by {@link #release(ByteBuffer)}.
+ * With leak tracking, where each buffer is leased is kept, so buffers never returned could be
+ * reported by {@link #reportLeaks()}, and buffers not leased are refused on release.
+ * Thread safe.
+ */
+public class BufferPool {
+    private static final String TAG = BufferPool.class.getSimpleName();
+    private static final boolean DEBUG_LEAK = false; // default leak tracking of new pools
+
+    public static final int MIN_BUFF_SIZE = 1 << 8; // 256 B
+    public static final int MAX_BUFF_SIZE = 1 << 20; // 1 MB
+
+    private static final int MIN_CLASS_SHIFT = 8;
+    private static final int CLASS_COUNT = 20 - MIN_CLASS_SHIFT + 1;
+    private static final int SLAB_SIZE = 64 * 1024;
+
+    private static final long DEF_BUDGET = 32 * 1024 * 1024;
+    private static final long DEF_DIRECT_BUDGET = 8 * 1024 * 1024;
+    private static final int DEF_MAX_BUFFS_PER_CLASS = 64;
+
+    private static final BufferPool sDefault = new BufferPool(false, DEF_BUDGET, DEF_MAX_BUFFS_PER_CLASS);
+    private static final BufferPool sDefaultDirect = new BufferPool(true, DEF_DIRECT_BUDGET, DEF_MAX_BUFFS_PER_CLASS);
+
+    private final boolean mDirect;
+    private final long mBudget;
+    private final int mMaxBuffsPerClass;
+
+    // free buffers of each class, as stack
+    private final ByteBuffer[][] mFree = new ByteBuffer[CLASS_COUNT][];
+    private final int[] mFreeCount = new int[CLASS_COUNT];
+    private final int[] mBuffCount = new int[CLASS_COUNT];
+
+    private long mAllocatedBytes = 0;
+    private long mInUseBytes = 0;
+    private long mHighWaterMark = 0;
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+    private long mFailCount = 0;
+
+    // leased buffer -> where it is leased. null if leak tracking is off
+    private Map<ByteBuffer, Throwable> mLeases = null;
+
+    /**
+     * @param direct true for direct buffer, false for heap buffer with backing array
+     * @param budget max bytes allocated by pool
+     * @param maxBuffsPerClass max buffers allocated for each size class
+     */
+    public BufferPool(boolean direct, long budget, int maxBuffsPerClass) {
+        if (budget <= 0 || maxBuffsPerClass <= 0) {
+            throw new IllegalArgumentException("invalid limit. budget: " + budget + ", maxBuffsPerClass: " + maxBuffsPerClass);
+        }
+
+        mDirect = direct;
+        mBudget = budget;
+        mMaxBuffsPerClass = maxBuffsPerClass;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            mFree[i] = new ByteBuffer[maxBuffsPerClass];
+        }
+        setTrackLeaks(DEBUG_LEAK);
+    }
+
+    /**
+     * @param size requested size, no more than {@link #MAX_BUFF_SIZE}
+     * @return capacity of buffer acquired for size
+     */
+    public static int getBuffSize(int size) {
+        if (size <= 0 || size > MAX_BUFF_SIZE) {
+            throw new IllegalArgumentException("invalid size: " + size);
+        }
+        return getClassSize(getClassIndex(size));
+    }
+
+    /**
+     * enable or disable leak tracking. Should be enabled before any buffer is leased.
+     * @param enable true to track
+     * @return this
+     */
+    public synchronized BufferPool setTrackLeaks(boolean enable) {
+        if (enable && mLeases == null) {
+            if (mInUseBytes > 0) {
+                throw new IllegalStateException("Should enable leak tracking before any buffer is leased");
+            }
+            mLeases = new IdentityHashMap<>();
+        } else if (!enable) {
+            mLeases = null;
+        }
+        return this;
+    }
+
+    /**
+     * @return pool shared by dataflow nodes and paths. heap buffers, 32 MB budget.
+     */
+    public static BufferPool getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * @return pool of direct buffers shared by nodes passing data to native, e.g. capture.
+     * direct buffers, 8 MB budget.
+     */
+    public static BufferPool getDefaultDirect() {
+        return sDefaultDirect;
+    }
+
+    /**
+     * get a cleared buffer with capacity of size class fitting size.
+     * @param size min capacity, no more than {@link #MAX_BUFF_SIZE}
+     * @return buffer, or null if limit of class or budget reached
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        if (size <= 0 || size > MAX_BUFF_SIZE) {
+            throw new IllegalArgumentException("invalid size: " + size);
+        }
+
+        int index = getClassIndex(size);
+        int classSize = getClassSize(index);
+        ByteBuffer buffer;
+        if (mFreeCount[index] > 0) {
+            buffer = mFree[index][--mFreeCount[index]];
+            mFree[index][mFreeCount[index]] = null;
+            mHitCount ++;
+        } else if (mBuffCount[index] < mMaxBuffsPerClass && allocateSlab(index)) {
+            buffer = mFree[index][--mFreeCount[index]];
+            mFree[index][mFreeCount[index]] = null;
+            mMissCount ++;
+        } else {
+            mFailCount ++;
+            Log.w(TAG, "acquire()# limit reached. size: " + size + ", " + this);
+            return null;
+        }
+
+        mInUseBytes += classSize;
+        if (mInUseBytes > mHighWaterMark) {
+            mHighWaterMark = mInUseBytes;
+        }
+        buffer.clear();
+        if (mLeases != null) {
+            mLeases.put(buffer, new Throwable("leased in thread " + Thread.currentThread().getName()));
+        }
+        return buffer;
+    }
+
+    /**
+     * return buffer to pool
+     * @param buffer buffer from {@link #acquire(int)}
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int index = Integer.numberOfTrailingZeros(capacity) - MIN_CLASS_SHIFT;
+        if (Integer.bitCount(capacity) != 1 || index < 0 || index >= CLASS_COUNT || buffer.isDirect() != mDirect) {
+            Log.w(TAG, "release()# buffer not from pool: " + buffer);
+            return;
+        }
+        if (mLeases != null && mLeases.remove(buffer) == null) {
+            Log.w(TAG, "release()# buffer not leased or released twice, ignore: " + buffer, new Throwable());
+            return;
+        }
+        if (mFreeCount[index] >= mBuffCount[index]) {
+            Log.w(TAG, "release()# too many buffers released, ignore: " + buffer);
+            return;
+        }
+
+        mFree[index][mFreeCount[index]++] = buffer;
+        mInUseBytes -= capacity;
+    }
+
+    /**
+     * log buffers leased and not returned yet, with where they are leased.
+     * Only available if leak tracking is enabled.
+     * @return count of buffers not returned, or -1 if not tracking
+     */
+    public synchronized int reportLeaks() {
+        if (mLeases == null) {
+            return -1;
+        }
+
+        for (Map.Entry<ByteBuffer, Throwable> entry : mLeases.entrySet()) {
+            Log.w(TAG, "reportLeaks()# not returned: " + entry.getKey(), entry.getValue());
+        }
+        return mLeases.size();
+    }
+
+    /**
+     * slice a slab into free buffers of class. slab is limited by class limit and budget.
+     * @return false if no buffer could be allocated
+     */
+    private boolean allocateSlab(int index) {
+        int classSize = getClassSize(index);
+        int count = Math.max(SLAB_SIZE / classSize, 1);
+        count = Math.min(count, mMaxBuffsPerClass - mBuffCount[index]);
+        count = (int) Math.min(count, (mBudget - mAllocatedBytes) / classSize);
+        if (count <= 0) {
+            return false;
+        }
+
+        ByteBuffer slab = mDirect ? ByteBuffer.allocateDirect(count * classSize) : ByteBuffer.allocate(count * classSize);
+        for (int i = 0; i < count; i++) {
+            slab.limit((i + 1) * classSize);
+            slab.position(i * classSize);
+            mFree[index][mFreeCount[index]++] = slab.slice();
+        }
+        mBuffCount[index] += count;
+        mAllocatedBytes += (long) count * classSize;
+        return true;
+    }
+
+    private static int getClassIndex(int size) {
+        if (size <= MIN_BUFF_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+    }
+
+    private static int getClassSize(int index) {
+        return 1 << (index + MIN_CLASS_SHIFT);
+    }
+
+    /**
+     * @return acquire served by a free buffer
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return acquire needed to allocate a slab
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return acquire failed by limit
+     */
+    public synchronized long getFailCount() {
+        return mFailCount;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    public synchronized long getInUseBytes() {
+        return mInUseBytes;
+    }
+
+    /**
+     * @return max bytes in use at the same time
+     */
+    public synchronized long getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BufferPool{hit: " + mHitCount + ", miss: " + mMissCount + ", fail: " + mFailCount
+                + ", in use: " + mInUseBytes + ", high water mark: " + mHighWaterMark
+                + ", allocated: " + mAllocatedBytes + "/" + mBudget + "}";
+    }
+}
@@ -1,34 +1,367 @@
 package com.t2m.android.camera2video.dataflow.data;
 
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sample descriptor passed between nodes.<br>
+ * Hot fields (buffer, offset, size, pts, flags, track, codec index & config format) are plain
+ * fields. Other values could still be attached by key with {@link #get(String, Object)} and
+ * {@link #set(String, Object)}, which are backed by a map created on first use.<br>
+ * Code written when Data was a HashMap could use {@link #asMap()}. Buffer info got by
+ * {@link AudioData#getBufferInfo(Data)} or set by key stays attached as before, i.e. changes to it
+ * are seen by typed accessors and the other way round.
+ */
+public class Data {
+    public static final int NO_INDEX = -1;
+
+    private ByteBuffer mBuffer;
+    private int mOffset;
+    private int mSize;
+    private long mPts;
+    private int mFlags;
+    private int mTrack = NO_INDEX;
+    private int mCodecIndex = NO_INDEX;
+    private MediaFormat mConfigFormat;
+
+    private MediaCodec.BufferInfo mInfoView; // attached by legacy api only, null on hot path
+    private HashMap<String, Object> mExtras;
+    private Map<String, Object> mMapView;
+
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public ByteBuffer setBuffer(ByteBuffer buffer) {
+        return mBuffer = buffer;
+    }
+
+    public int getOffset() {
+        return mInfoView != null ? mInfoView.offset : mOffset;
+    }
+
+    public void setOffset(int offset) {
+        mOffset = offset;
+        if (mInfoView != null) {
+            mInfoView.offset = offset;
+        }
+    }
+
+    public int getSize() {
+        return mInfoView != null ? mInfoView.size : mSize;
+    }
+
+    public void setSize(int size) {
+        mSize = size;
+        if (mInfoView != null) {
+            mInfoView.size = size;
+        }
+    }
+
+    /**
+     * @return presentation time in us
+     */
+    public long getPts() {
+        return mInfoView != null ? mInfoView.presentationTimeUs : mPts;
+    }
+
+    public void setPts(long pts) {
+        mPts = pts;
+        if (mInfoView != null) {
+            mInfoView.presentationTimeUs = pts;
+        }
+    }
+
+    /**
+     * @return MediaCodec.BUFFER_FLAG_*
+     */
+    public int getFlags() {
+        return mInfoView != null ? mInfoView.flags : mFlags;
+    }
+
+    public void setFlags(int flags) {
+        mFlags = flags;
+        if (mInfoView != null) {
+            mInfoView.flags = flags;
+        }
+    }
+
+    public void setInfo(int offset, int size, long pts, int flags) {
+        mOffset = offset;
+        mSize = size;
+        mPts = pts;
+        mFlags = flags;
+        if (mInfoView != null) {
+            mInfoView.set(offset, size, pts, flags);
+        }
+    }
+
+    public void setInfo(MediaCodec.BufferInfo info) {
+        setInfo(info.offset, info.size, info.presentationTimeUs, info.flags);
+    }
+
+    /**
+     * copy offset, size, pts & flags from another sample
+     * @param data source sample
+     */
+    public void setInfo(Data data) {
+        setInfo(data.getOffset(), data.getSize(), data.getPts(), data.getFlags());
+    }
+
+    /**
+     * fill info to a MediaCodec.BufferInfo
+     * @param info info to fill
+     * @return info
+     */
+    public MediaCodec.BufferInfo getInfo(MediaCodec.BufferInfo info) {
+        info.set(getOffset(), getSize(), getPts(), getFlags());
+        return info;
+    }
+
+    /**
+     * attach info as the storage of offset, size, pts & flags, like info put into the old HashMap.
+     * typed accessors then go through it, so changes on either side are seen by the other.
+     * Info attached before is detached first and never changed after that.
+     * @param info info to attach, its values are taken. null to detach and clear info.
+     */
+    private void attachInfo(MediaCodec.BufferInfo info) {
+        detachInfo();
+        if (info != null) {
+            setInfo(info);
+        } else {
+            setInfo(0, 0, 0, 0);
+        }
+        mInfoView = info;
+    }
+
+    /**
+     * keep values of attached info in fields, and stop using it
+     */
+    private void detachInfo() {
+        MediaCodec.BufferInfo info = mInfoView;
+        if (info != null) {
+            mInfoView = null;
+            setInfo(info);
+        }
+    }
+
+    /**
+     * @return attached info, attached on first call with current values
+     */
+    MediaCodec.BufferInfo getAttachedInfo() {
+        if (mInfoView == null) {
+            MediaCodec.BufferInfo info = getInfo(new MediaCodec.BufferInfo());
+            attachInfo(info);
+        }
+        return mInfoView;
+    }
+
+    public int getTrack() {
+        return mTrack;
+    }
+
+    public void setTrack(int track) {
+        mTrack = track;
+    }
+
+    public int getCodecIndex() {
+        return mCodecIndex;
+    }
+
+    public int setCodecIndex(int index) {
+        return mCodecIndex = index;
+    }
+
+    public MediaFormat getConfigFormat() {
+        return mConfigFormat;
+    }
+
+    public MediaFormat setConfigFormat(MediaFormat format) {
+        return mConfigFormat = format;
+    }
 
-public class Data extends HashMap<String, Object> {
     public <T> T get(String key, T defValue) {
-        Object value = get(key);
+        Object value = getValue(key);
         return (value == null) ? defValue : (T) value;
     }
 
     public <T> T set(String key, T value) {
-        if (value == null) {
-            if (containsKey(key)) {
-                remove(key);
-            }
-        } else {
-            super.put(key, value);
+        switch (key) {
+            case AudioData.KEY_DATA_BYTE_BUFFER:
+                mBuffer = (ByteBuffer) value;
+                break;
+            case AudioData.KEY_DATA_BUFFER_INFO:
+                attachInfo((MediaCodec.BufferInfo) value);
+                break;
+            case AudioData.KEY_CONFIG_MEDIA_FORMAT:
+                mConfigFormat = (MediaFormat) value;
+                break;
+            default:
+                if (value == null) {
+                    if (mExtras != null) {
+                        mExtras.remove(key);
+                    }
+                } else {
+                    if (mExtras == null) {
+                        mExtras = new HashMap<>();
+                    }
+                    mExtras.put(key, value);
+                }
         }
 
         return value;
     }
 
+    public boolean containsKey(String key) {
+        return getValue(key) != null;
+    }
+
+    private Object getValue(String key) {
+        switch (key) {
+            case AudioData.KEY_DATA_BYTE_BUFFER:
+                return mBuffer;
+            case AudioData.KEY_DATA_BUFFER_INFO:
+                return getAttachedInfo();
+            case AudioData.KEY_CONFIG_MEDIA_FORMAT:
+                return mConfigFormat;
+            default:
+                return mExtras != null ? mExtras.get(key) : null;
+        }
+    }
+
+    /**
+     * @return map of values by key, changes are written through. Known keys of {@link AudioData}
+     * are mapped to fields.
+     * @deprecated for code written when Data was a HashMap. use typed accessors.
+     */
+    @Deprecated
+    public Map<String, Object> asMap() {
+        if (mMapView == null) {
+            mMapView = new MapView();
+        }
+        return mMapView;
+    }
+
+    /**
+     * @deprecated see {@link #asMap()}
+     */
+    @Deprecated
+    public Object get(Object key) {
+        return asMap().get(key);
+    }
+
+    /**
+     * @deprecated see {@link #asMap()}
+     */
     @Deprecated
-    @Override
     public Object put(String key, Object value) {
-        return super.put(key, value);
+        return asMap().put(key, value);
     }
 
+    /**
+     * @deprecated see {@link #asMap()}
+     */
     @Deprecated
+    public Object remove(Object key) {
+        return asMap().remove(key);
+    }
+
+    private List<String> keys() {
+        List<String> keys = new ArrayList<>();
+        if (mBuffer != null) {
+            keys.add(AudioData.KEY_DATA_BYTE_BUFFER);
+        }
+        if (mInfoView != null) {
+            keys.add(AudioData.KEY_DATA_BUFFER_INFO);
+        }
+        if (mConfigFormat != null) {
+            keys.add(AudioData.KEY_CONFIG_MEDIA_FORMAT);
+        }
+        if (mExtras != null) {
+            keys.addAll(mExtras.keySet());
+        }
+        return keys;
+    }
+
+    /**
+     * map view of {@link Data}. entries are listed from a snapshot of keys.
+     */
+    private class MapView extends AbstractMap<String, Object> {
+        @Override
+        public Object get(Object key) {
+            return key instanceof String ? getValue((String) key) : null;
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            Object old = getValue(key);
+            set(key, value);
+            return old;
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return key instanceof String ? put((String) key, null) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    final Iterator<String> keys = keys().iterator();
+                    return new Iterator<Entry<String, Object>>() {
+                        private String mKey;
+
+                        @Override
+                        public boolean hasNext() {
+                            return keys.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            mKey = keys.next();
+                            return new SimpleEntry<>(mKey, getValue(mKey));
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (mKey == null) {
+                                throw new IllegalStateException("next() not called");
+                            }
+                            set(mKey, null);
+                            mKey = null;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys().size();
+                }
+            };
+        }
+    }
+
     @Override
-    public Object get(Object key) {
-        return super.get(key);
+    public String toString() {
+        return "Data{buffer=" + mBuffer + ", offset=" + getOffset() + ", size=" + getSize() + ", pts=" + getPts()
+                + ", flags=" + getFlags() + ", track=" + mTrack + ", codecIndex=" + mCodecIndex
+                + ", configFormat=" + mConfigFormat + (mExtras != null ? ", extras=" + mExtras : "") + "}";
     }
 }
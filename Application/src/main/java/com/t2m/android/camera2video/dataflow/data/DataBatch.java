@@ -0,0 +1,116 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.data;
+
+/**
+ * DataBatch<br>
+ * Preallocated samples transferred by one reader or writer call.<br>
+ * Reader fills samples [0, size). Writer consumes samples [position, limit), so a writer
+ * returning retry could continue from where it stopped. Limit equals size unless samples at
+ * the end should not be written (e.g. samples after eos), but still need to be released.
+ */
+public class DataBatch {
+    private final Data[] mData;
+    private int mSize = 0;
+    private int mPosition = 0;
+    private int mLimit = 0;
+
+    public DataBatch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        }
+
+        mData = new Data[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mData[i] = new Data();
+        }
+    }
+
+    public int capacity() {
+        return mData.length;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isFull() {
+        return mSize == mData.length;
+    }
+
+    public Data get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + mSize);
+        }
+        return mData[index];
+    }
+
+    /**
+     * @return next sample to be filled by reader. call {@link #add()} after it is filled.
+     */
+    public Data next() {
+        if (isFull()) {
+            throw new IllegalStateException("batch is full");
+        }
+        return mData[mSize];
+    }
+
+    /**
+     * commit the sample returned by {@link #next()}
+     */
+    public void add() {
+        if (isFull()) {
+            throw new IllegalStateException("batch is full");
+        }
+        mSize ++;
+        mLimit = mSize;
+    }
+
+    public int position() {
+        return mPosition;
+    }
+
+    public int limit() {
+        return mLimit;
+    }
+
+    /**
+     * @param limit samples from limit are not consumed by writer
+     */
+    public void setLimit(int limit) {
+        if (limit < mPosition || limit > mSize) {
+            throw new IllegalArgumentException("invalid limit: " + limit + ", position: " + mPosition + ", size: " + mSize);
+        }
+        mLimit = limit;
+    }
+
+    public boolean hasRemaining() {
+        return mPosition < mLimit;
+    }
+
+    /**
+     * @return sample at position
+     */
+    public Data current() {
+        return get(mPosition);
+    }
+
+    /**
+     * current sample is consumed
+     */
+    public void advance() {
+        if (!hasRemaining()) {
+            throw new IllegalStateException("no remaining sample");
+        }
+        mPosition ++;
+    }
+
+    public void rewind() {
+        mPosition = 0;
+    }
+
+    public void clear() {
+        mSize = 0;
+        mPosition = 0;
+        mLimit = 0;
+    }
+}
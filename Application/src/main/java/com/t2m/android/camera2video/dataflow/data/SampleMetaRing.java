@@ -0,0 +1,178 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.data;
+
+/**
+ * SampleMetaRing<br>
+ * Ring of sample metadata (offset, size, pts, flags, track) kept in parallel primitive arrays,
+ * instead of one {@link Data} object per sample. Batch stages (e.g. muxing, interleaving and
+ * statistics) could scan a field of many samples without pointer chasing.<br>
+ * Samples are addressed by sequence, which increases from 0 and is valid in [{@link #head()},
+ * {@link #tail()}). Adding to a full ring overwrites the oldest sample.<br>
+ * Not thread safe.
+ */
+public class SampleMetaRing {
+    private final int mMask;
+    private final int[] mOffset;
+    private final int[] mSize;
+    private final long[] mPts;
+    private final int[] mFlags;
+    private final int[] mTrack;
+
+    private long mHead = 0;
+    private long mTail = 0;
+
+    /**
+     * @param capacity max samples, rounded up to power of 2
+     */
+    public SampleMetaRing(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mOffset = new int[size];
+        mSize = new int[size];
+        mPts = new long[size];
+        mFlags = new int[size];
+        mTrack = new int[size];
+    }
+
+    public int capacity() {
+        return mMask + 1;
+    }
+
+    public int size() {
+        return (int) (mTail - mHead);
+    }
+
+    public boolean isEmpty() {
+        return mTail == mHead;
+    }
+
+    /**
+     * @return sequence of oldest sample
+     */
+    public long head() {
+        return mHead;
+    }
+
+    /**
+     * @return sequence of next sample to add
+     */
+    public long tail() {
+        return mTail;
+    }
+
+    /**
+     * add sample. oldest sample is dropped if full.
+     * @return sequence of sample
+     */
+    public long add(int offset, int size, long pts, int flags, int track) {
+        if (mTail - mHead > mMask) {
+            mHead ++;
+        }
+
+        int index = (int) mTail & mMask;
+        mOffset[index] = offset;
+        mSize[index] = size;
+        mPts[index] = pts;
+        mFlags[index] = flags;
+        mTrack[index] = track;
+        return mTail ++;
+    }
+
+    /**
+     * add metadata of data
+     * @return sequence of sample
+     */
+    public long add(Data data) {
+        return add(data.getOffset(), data.getSize(), data.getPts(), data.getFlags(), data.getTrack());
+    }
+
+    /**
+     * write metadata of sample into data
+     * @param sequence sequence of sample
+     * @param data data to set
+     */
+    public void get(long sequence, Data data) {
+        int index = indexOf(sequence);
+        data.setInfo(mOffset[index], mSize[index], mPts[index], mFlags[index]);
+        data.setTrack(mTrack[index]);
+    }
+
+    public int getOffset(long sequence) {
+        return mOffset[indexOf(sequence)];
+    }
+
+    public int getSize(long sequence) {
+        return mSize[indexOf(sequence)];
+    }
+
+    public long getPts(long sequence) {
+        return mPts[indexOf(sequence)];
+    }
+
+    public int getFlags(long sequence) {
+        return mFlags[indexOf(sequence)];
+    }
+
+    public int getTrack(long sequence) {
+        return mTrack[indexOf(sequence)];
+    }
+
+    /**
+     * @return total size of samples of track in ring
+     */
+    public long getBytes(int track) {
+        long bytes = 0;
+        for (long i = mHead; i < mTail; i++) {
+            int index = (int) i & mMask;
+            if (mTrack[index] == track) {
+                bytes += mSize[index];
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return sequence of sample with the smallest pts in ring, for interleaving. -1 if empty
+     */
+    public long findMinPts() {
+        long found = -1;
+        long minPts = Long.MAX_VALUE;
+        for (long i = mHead; i < mTail; i++) {
+            long pts = mPts[(int) i & mMask];
+            if (pts < minPts) {
+                minPts = pts;
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * drop oldest samples
+     * @param count samples to drop
+     */
+    public void remove(int count) {
+        if (count < 0 || count > size()) {
+            throw new IllegalArgumentException("invalid count: " + count + ", size: " + size());
+        }
+        mHead += count;
+    }
+
+    public void clear() {
+        mHead = mTail;
+    }
+
+    private int indexOf(long sequence) {
+        if (sequence < mHead || sequence >= mTail) {
+            throw new IndexOutOfBoundsException("sequence: " + sequence + ", head: " + mHead + ", tail: " + mTail);
+        }
+        return (int) sequence & mMask;
+    }
+}
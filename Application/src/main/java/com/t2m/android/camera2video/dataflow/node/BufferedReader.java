@@ -3,12 +3,13 @@ package com.t2m.android.camera2video.dataflow.node;
 
 
 import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.data.DataBatch;
 
 /**
  * BufferedReader<br>
  * A ByteBuffer is provided for reading
  */
-public abstract class BufferedReader {
+public abstract class BufferedReader extends DataPort {
     /**
      * read from node begin.<br>
      * For this method, buffer will be set by this method.<br>
@@ -27,4 +28,42 @@ public abstract class BufferedReader {
      * @see #readBegin(Data)
      */
     public abstract int readEnd(Data data);
+
+    /**
+     * read batch from node begin.<br>
+     * Batch is cleared and filled with samples ready now, up to its capacity.
+     * Default implementation calls {@link #readBegin(Data)} until it does not return {@link DataNode#RESULT_OK}.
+     * @param batch batch
+     * @return {@link DataNode#RESULT_OK} if at least one sample read, otherwise result of first {@link #readBegin(Data)}
+     * @see #readEnd(DataBatch)
+     */
+    public int readBegin(DataBatch batch) {
+        batch.clear();
+        while (!batch.isFull()) {
+            int result = readBegin(batch.next());
+            if (result != DataNode.RESULT_OK) {
+                return batch.size() > 0 ? DataNode.RESULT_OK : result;
+            }
+            batch.add();
+        }
+        return DataNode.RESULT_OK;
+    }
+
+    /**
+     * read batch from node end.<br>
+     * Release all samples of batch fetched from {@link #readBegin(DataBatch)}.
+     * @param batch batch
+     * @return {@link DataNode#RESULT_OK} or first failed result
+     * @see #readBegin(DataBatch)
+     */
+    public int readEnd(DataBatch batch) {
+        int result = DataNode.RESULT_OK;
+        for (int i = 0; i < batch.size(); i++) {
+            int r = readEnd(batch.get(i));
+            if (result == DataNode.RESULT_OK) {
+                result = r;
+            }
+        }
+        return result;
+    }
 }
@@ -8,7 +8,7 @@ import com.t2m.android.camera2video.dataflow.data.Data;
  * BufferedWriter<br>
  * A ByteBuffer is provided for writing
  */
-public abstract class BufferedWriter {
+public abstract class BufferedWriter extends DataPort {
     /**
      * write to node begin.<br>
      * For this method, buffer will be set by this method.<br>
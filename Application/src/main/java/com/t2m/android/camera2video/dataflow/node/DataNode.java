@@ -13,6 +13,19 @@ public abstract class DataNode implements Closeable {
     public static final int RESULT_NOT_OPEN = 2;
     public static final int RESULT_ERROR = 3;
 
+    /**
+     * latency class: samples are lost if not read in time, e.g. audio capture
+     */
+    public static final int LATENCY_REALTIME = 0;
+    /**
+     * latency class: delay adds to latency of output only, e.g. codec
+     */
+    public static final int LATENCY_ENCODE = 1;
+    /**
+     * latency class: delay is absorbed by buffering, e.g. file io
+     */
+    public static final int LATENCY_BACKGROUND = 2;
+
     public abstract DataNode open() throws IOException;
     public abstract boolean isOpened();
     @Override
@@ -22,4 +35,59 @@ public abstract class DataNode implements Closeable {
     public abstract BufferedWriter getBufferedWriter();
     public abstract DirectReader getDirectReader();
     public abstract DirectWriter getDirectWriter();
+
+    /**
+     * ports supported by this node, for metrics and graph building.
+     * @return supported ports. empty by default.
+     */
+    protected DataPort[] getPorts() {
+        return new DataPort[0];
+    }
+
+    /**
+     * check port support without calling a getter that throws if not supported
+     * @param type {@link BufferedReader}, {@link BufferedWriter}, {@link DirectReader} or {@link DirectWriter}
+     * @return true if a port of type is supported
+     */
+    public boolean hasPort(Class<? extends DataPort> type) {
+        for (DataPort port : getPorts()) {
+            if (type.isInstance(port)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * request a source node to end its stream: eos is provided by reader after samples captured
+     * already, so that the graph could be drained. Not supported by default.
+     * @return true if eos is requested, false if node is not a source or not supported
+     */
+    public boolean requestEos() {
+        return false;
+    }
+
+    /**
+     * @return samples accepted by writer and not provided by reader yet, which are lost if node is
+     * closed now. 0 by default.
+     */
+    public int getPendingCount() {
+        return 0;
+    }
+
+    /**
+     * paths to or from this node run at priority of the most urgent class of their nodes.
+     * @return {@link #LATENCY_REALTIME}, {@link #LATENCY_ENCODE} or {@link #LATENCY_BACKGROUND}.
+     * {@link #LATENCY_ENCODE} by default.
+     */
+    public int getLatencyClass() {
+        return LATENCY_ENCODE;
+    }
+
+    /**
+     * @return snapshot of counters of all ports
+     */
+    public NodeMetrics getMetrics() {
+        return new NodeMetrics(getClass().getSimpleName(), getPorts());
+    }
 }
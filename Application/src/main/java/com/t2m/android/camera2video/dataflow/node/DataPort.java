@@ -0,0 +1,55 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.node;
+
+/**
+ * DataPort<br>
+ * Base class of all readers and writers of a {@link DataNode}.<br>
+ * A port returns {@link DataNode#RESULT_RETRY} when it is not ready. Ports that are able to tell
+ * when they become ready again override {@link #canSignalReady()} and call {@link #notifyReady()},
+ * so the path may block until woken instead of polling.
+ */
+public abstract class DataPort {
+    private volatile OnReadyListener mOnReadyListener;
+    private final PortMetrics mMetrics = new PortMetrics();
+
+    /**
+     * whether this port calls {@link #notifyReady()} once it may succeed after a {@link DataNode#RESULT_RETRY}.
+     * @return true if port signals readiness, false if port should be polled.
+     */
+    public boolean canSignalReady() {
+        return false;
+    }
+
+    /**
+     * set listener for readiness signal. only one listener (the path using this port) is supported.
+     * @param listener listener, null to remove
+     */
+    public void setOnReadyListener(OnReadyListener listener) {
+        mOnReadyListener = listener;
+    }
+
+    /**
+     * signal that data is available (reader) or space is available (writer).<br>
+     * May be called from any thread.
+     */
+    public void notifyReady() {
+        OnReadyListener listener = mOnReadyListener;
+        if (listener != null) {
+            listener.onReady(this);
+        }
+    }
+
+    /**
+     * @return live counters of this port. updated by the path using the port.
+     */
+    public PortMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Listener for readiness signal
+     */
+    public interface OnReadyListener {
+        void onReady(DataPort port);
+    }
+}
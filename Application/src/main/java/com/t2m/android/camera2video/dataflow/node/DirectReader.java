@@ -8,7 +8,7 @@ import com.t2m.android.camera2video.dataflow.data.Data;
  * DirectReader<br>
  * A ByteBuffer should be passed for reading
  */
-public abstract class DirectReader {
+public abstract class DirectReader extends DataPort {
     /**
      * read from node.<br>
      * For this method. buffer should be provided. method will fill data into the given object.
@@ -16,4 +16,12 @@ public abstract class DirectReader {
      * @return {@link DataNode#RESULT_OK}, {@link DataNode#RESULT_RETRY}, {@link DataNode#RESULT_NOT_OPEN}, {@link DataNode#RESULT_ERROR}
      */
     public abstract int read(Data data);
+
+    /**
+     * max size of sample, so that buffer provided for {@link #read(Data)} could be sized.
+     * @return max size of sample in bytes, 0 if unknown
+     */
+    public int getMaxSampleSize() {
+        return 0;
+    }
 }
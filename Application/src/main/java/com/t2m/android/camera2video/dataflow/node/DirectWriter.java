@@ -2,12 +2,13 @@
 package com.t2m.android.camera2video.dataflow.node;
 
 import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.data.DataBatch;
 
 /**
  * DirectWriter<br>
  * A ByteBuffer should be passed for writing
  */
-public abstract class DirectWriter {
+public abstract class DirectWriter extends DataPort {
     /**
      * write to node.<br>
      * For this method, buffer should be provided. method will get data from the given object.
@@ -15,4 +16,23 @@ public abstract class DirectWriter {
      * @return {@link DataNode#RESULT_OK}, {@link DataNode#RESULT_RETRY}, {@link DataNode#RESULT_NOT_OPEN}, {@link DataNode#RESULT_ERROR}
      */
     public abstract int write(Data data);
+
+    /**
+     * write batch to node.<br>
+     * Samples from batch position are written, and position is advanced for each accepted sample,
+     * so the call could be continued after {@link DataNode#RESULT_RETRY}.
+     * Default implementation calls {@link #write(Data)} for each sample.
+     * @param batch batch
+     * @return {@link DataNode#RESULT_OK} if all remaining written, {@link DataNode#RESULT_RETRY}, {@link DataNode#RESULT_NOT_OPEN}, {@link DataNode#RESULT_ERROR}
+     */
+    public int write(DataBatch batch) {
+        while (batch.hasRemaining()) {
+            int result = write(batch.current());
+            if (result != DataNode.RESULT_OK) {
+                return result;
+            }
+            batch.advance();
+        }
+        return DataNode.RESULT_OK;
+    }
 }
@@ -0,0 +1,46 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.node;
+
+/**
+ * NodeMetrics<br>
+ * Snapshot of port counters of a {@link DataNode}, summed by reader side and writer side.
+ */
+public class NodeMetrics {
+    private final String mName;
+    private final PortMetrics mReader = new PortMetrics();
+    private final PortMetrics mWriter = new PortMetrics();
+
+    NodeMetrics(String name, DataPort[] ports) {
+        mName = name;
+        for (DataPort port : ports) {
+            if (port instanceof BufferedReader || port instanceof DirectReader) {
+                mReader.add(port.getMetrics());
+            } else {
+                mWriter.add(port.getMetrics());
+            }
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return counters of samples read from node
+     */
+    public PortMetrics getReader() {
+        return mReader;
+    }
+
+    /**
+     * @return counters of samples written to node
+     */
+    public PortMetrics getWriter() {
+        return mWriter;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + mName + "] reader: {" + mReader + "}, writer: {" + mWriter + "}";
+    }
+}
@@ -0,0 +1,89 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.node;
+
+/**
+ * PortMetrics<br>
+ * Live counters of a {@link DataPort}, updated by the path using the port.<br>
+ * Counters are only written by the path thread, so plain volatile fields are enough, and
+ * readers from other threads get a consistent enough view without locking.
+ */
+public class PortMetrics {
+    private volatile long mSamples = 0;
+    private volatile long mBytes = 0;
+    private volatile long mRetries = 0;
+    private volatile long mBlockedNs = 0;
+
+    public PortMetrics() {
+    }
+
+    private PortMetrics(PortMetrics metrics) {
+        mSamples = metrics.mSamples;
+        mBytes = metrics.mBytes;
+        mRetries = metrics.mRetries;
+        mBlockedNs = metrics.mBlockedNs;
+    }
+
+    /**
+     * one sample transferred by port
+     * @param bytes size of sample
+     */
+    public void onTransfer(int bytes) {
+        mSamples ++;
+        mBytes += bytes;
+    }
+
+    /**
+     * port returned {@link DataNode#RESULT_RETRY}
+     */
+    public void onRetry() {
+        mRetries ++;
+    }
+
+    /**
+     * path waited for this port
+     * @param ns time waited
+     */
+    public void onBlocked(long ns) {
+        mBlockedNs += ns;
+    }
+
+    public long getSamples() {
+        return mSamples;
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public long getRetries() {
+        return mRetries;
+    }
+
+    public long getBlockedNs() {
+        return mBlockedNs;
+    }
+
+    /**
+     * add counters of another port. for aggregating ports of a node.
+     * @param metrics metrics to add
+     */
+    void add(PortMetrics metrics) {
+        mSamples += metrics.mSamples;
+        mBytes += metrics.mBytes;
+        mRetries += metrics.mRetries;
+        mBlockedNs += metrics.mBlockedNs;
+    }
+
+    /**
+     * @return copy of current counters
+     */
+    public PortMetrics snapshot() {
+        return new PortMetrics(this);
+    }
+
+    @Override
+    public String toString() {
+        return "samples: " + mSamples + ", bytes: " + mBytes + ", retries: " + mRetries
+                + ", blocked: " + mBlockedNs / 1000000 + "ms";
+    }
+}
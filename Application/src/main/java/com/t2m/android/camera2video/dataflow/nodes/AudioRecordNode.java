@@ -3,31 +3,56 @@ package com.t2m.android.camera2video.dataflow.nodes;
 
 import android.media.AudioRecord;
 import android.media.MediaCodec;
+import android.os.Process;
 import android.util.Log;
 
 import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.BufferPool;
 import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.data.SampleMetaRing;
 import com.t2m.android.camera2video.dataflow.node.BufferedReader;
 import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
 import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
 import com.t2m.android.camera2video.dataflow.node.DirectReader;
 import com.t2m.android.camera2video.dataflow.node.DirectWriter;
+import com.t2m.android.camera2video.dataflow.path.ThreadControl;
 
 import java.io.IOException;
-import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * AudioRecord Node
+ * AudioRecord Node<br>
+ * Pcm is captured by a dedicated thread at audio priority into a preallocated ring of blocks,
+ * each with its pts. Readers take blocks from the ring, so a stall downstream (e.g. codec without
+ * free input buffer) never stalls capture. The ring absorbs up to ring depth blocks, then a late
+ * reader loses its oldest blocks (ring overrun), while AudioRecord itself is always read in time.<br>
+ * Buffered reader provides the ring slot itself, without copy. A slot held by a reader is not
+ * captured into until released by readEnd, and at most capture depth samples could be held by
+ * each reader. Direct reader copies pcm into the buffer of data given, e.g. input buffer of codec
+ * from {@link CodecNode#getBufferedWriter()}.<br>
+ * Several tasks could read one capture by taps from {@link #newTap()}. Each tap reads every sample
+ * captured after it is opened, and the capture is opened by first tap opened and closed by last
+ * tap closed. A tap too slow to keep up loses its oldest samples, never blocking other taps.<br>
+ * Capture could be paused, with AudioRecord stopped, by {@link #pause()} and {@link #resume()}.
  */
 public class AudioRecordNode extends DataNode {
     private static final String TAG = AudioRecordNode.class.getSimpleName();
+    private static final boolean DEBUG = false;
 
-    private static final int CACHED_BUFF_SIZE = 10;
-    private static final int BUFF_FRAME_COUNT = 100;
+    /**
+     * samples per channel of one AAC frame. capture block is one AAC frame by default, so that
+     * each codec input buffer holds whole encoder frames.
+     */
+    public static final int AAC_FRAME_SAMPLES = 1024;
+    private static final int DEF_CAPTURE_DEPTH = 16;
+    private static final int DEF_RING_DEPTH = 64; // about 1.4s of 1024 frames at 48kHz
 
-    private final Object[] mCachedBuffs = new Object[CACHED_BUFF_SIZE];
+    private int mCaptureDepth = DEF_CAPTURE_DEPTH;
+    private int mRingDepth = DEF_RING_DEPTH;
 
     private AudioRecord mAudioRecord;
     private Object mObject = new Object();
@@ -37,19 +62,81 @@ public class AudioRecordNode extends DataNode {
     private int mAudioFormat;
     private int mChannelConfig;
     private int mBytesPerSample;
+    private int mFrameSize;
+    private int mBlockFrames = AAC_FRAME_SAMPLES;
     private long mSampleCount;
     private int mBuffSize;
-    private boolean mStopped = false;
+    private volatile boolean mStopped = false;
+    private long mRecordBufferNs; // audio kept by AudioRecord before overrun
+    private long mLastReadNs;
+    private volatile long mOverrunCount = 0;
+    private final Object mPauseLock = new Object();
+    private boolean mPaused = false; // guarded by mPauseLock
+
+    // ring of captured blocks, guarded by mRingLock. written by capture thread only.
+    // slots are not mapped to ring 1:1, since a slot held by a reader could leave the ring.
+    private final Object mRingLock = new Object();
+    private SampleMetaRing mRing;
+    private int[] mRingSlots; // slot of each block in ring
+    private ByteBuffer[] mSlots; // written by capture thread
+    private int[] mSlotRefs; // readers holding slot
+    private boolean[] mSlotInRing;
+    private int[] mFreeSlots;
+    private int mFreeCount;
+    private CaptureThread mCaptureThread;
+    private boolean mCaptureFinished;
+    private boolean mCaptureFailed;
+    private final List<DataPort> mRingReaders = new ArrayList<>(); // woken when block captured
+
+    private final SharedNode mShared = new SharedNode(this);
+    private final Cursor mCursor = new Cursor();
+    private final List<Cursor> mCursors = new ArrayList<>(); // of node and all taps
+
+    /**
+     * position of a reader in ring
+     */
+    private static class Cursor {
+        long next; // sequence of next block to read
+        long lostCount;
+        long underrunCount;
+        volatile boolean stopped;
+        ByteBuffer[] views; // view of each slot, for this reader only
+        ByteBuffer eosView; // empty view handed out with eos
+        int[] held; // slots held by buffered reader
+        int heldCount;
+    }
 
     private BufferedReader mBufferedReader = new BufferedReader() {
         @Override
         public int readBegin(Data data) {
-            return AudioRecordNode.this.readBegin(data);
+            return AudioRecordNode.this.readBegin(mCursor, data);
         }
 
         @Override
         public int readEnd(Data data) {
-            return AudioRecordNode.this.readEnd(data);
+            return AudioRecordNode.this.readEnd(mCursor, data);
+        }
+
+        @Override
+        public boolean canSignalReady() {
+            return true;
+        }
+    };
+
+    private DirectReader mDirectReader = new DirectReader() {
+        @Override
+        public int read(Data data) {
+            return AudioRecordNode.this.read(mCursor, data);
+        }
+
+        @Override
+        public int getMaxSampleSize() {
+            return mBuffSize;
+        }
+
+        @Override
+        public boolean canSignalReady() {
+            return true;
         }
     };
 
@@ -61,8 +148,106 @@ public class AudioRecordNode extends DataNode {
         mBytesPerSample = Utils.getBytesPerSample(audioFormat);
         mChannelConfig = Utils.getChannelConfig(channelCount);
 
-        int mFrameSize = Utils.getFrameSize(mChannelCount, mAudioFormat);
-        mBuffSize = mFrameSize * BUFF_FRAME_COUNT;
+        mFrameSize = Utils.getFrameSize(mChannelCount, mAudioFormat);
+        mBuffSize = mFrameSize * mBlockFrames;
+
+        mRingReaders.add(mBufferedReader);
+        mRingReaders.add(mDirectReader);
+        mCursors.add(mCursor);
+    }
+
+    /**
+     * set frames captured by one read. Larger block means less reads, path steps and codec input
+     * buffers per second, and more latency. Should be called before {@link #open()}.
+     * @param frames frames per block, {@link #AAC_FRAME_SAMPLES} by default
+     * @return this
+     */
+    public AudioRecordNode setBlockFrames(int frames) {
+        if (frames <= 0 || (long) frames * mFrameSize > BufferPool.MAX_BUFF_SIZE) {
+            throw new IllegalArgumentException("invalid frames: " + frames);
+        }
+        if (isOpened()) {
+            throw new IllegalStateException("Should not change block size after opened");
+        }
+
+        mBlockFrames = frames;
+        mBuffSize = mFrameSize * frames;
+        return this;
+    }
+
+    /**
+     * cut block to fit input buffer of encoder: whole AAC frames not larger than max input size,
+     * or whole frames if one AAC frame does not fit.
+     * @param maxInputSize e.g. {@link CodecNode#getMaxInputSize()}. 0 to keep block size.
+     * @return this
+     */
+    public AudioRecordNode fitBlockSize(int maxInputSize) {
+        if (maxInputSize <= 0 || mBuffSize <= maxInputSize) {
+            return this;
+        }
+
+        int frames = maxInputSize / mFrameSize;
+        if (frames >= AAC_FRAME_SAMPLES) {
+            frames = frames / AAC_FRAME_SAMPLES * AAC_FRAME_SAMPLES;
+        }
+        return setBlockFrames(Math.max(frames, 1));
+    }
+
+    public int getBlockFrames() {
+        return mBlockFrames;
+    }
+
+    /**
+     * set max samples held by buffered reader, e.g. queued in codec. Should be called before
+     * {@link #open()}.
+     * @param depth max samples read and not ended yet, for each reader
+     * @return this
+     */
+    public AudioRecordNode setCaptureDepth(int depth) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("invalid depth: " + depth);
+        }
+        if (isOpened()) {
+            throw new IllegalStateException("Should not change capture depth after opened");
+        }
+
+        mCaptureDepth = depth;
+        return this;
+    }
+
+    /**
+     * set blocks kept in ring for readers, i.e. how long downstream could stall without losing
+     * audio. Should be called before {@link #open()}.
+     * @param depth blocks in ring, rounded up to power of 2
+     * @return this
+     */
+    public AudioRecordNode setRingDepth(int depth) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("invalid depth: " + depth);
+        }
+        if (isOpened()) {
+            throw new IllegalStateException("Should not change ring depth after opened");
+        }
+
+        mRingDepth = depth;
+        return this;
+    }
+
+    /**
+     * create a tap reading this capture. Tap should be added to task instead of this node, and
+     * all readers of this capture should be taps. Should be called before {@link #open()}.
+     * @return new tap
+     */
+    public Tap newTap() {
+        if (isOpened()) {
+            throw new IllegalStateException("Should not add tap after opened");
+        }
+
+        Tap tap = new Tap(mShared.share());
+        mRingReaders.add(tap.mTapBufferedReader);
+        mRingReaders.add(tap.mTapDirectReader);
+        mCursors.add(tap.mTapCursor);
+        return tap;
     }
 
     @Override
@@ -75,18 +260,59 @@ public class AudioRecordNode extends DataNode {
 
             mSampleCount = 0;
             mStopped = false;
+            mLastReadNs = 0;
+            synchronized (mPauseLock) {
+                mPaused = false;
+            }
+            mOverrunCount = 0;
 
             int minBufferSize = AudioRecord.getMinBufferSize(mSampleRate, mChannelConfig, mAudioFormat);
             if (minBufferSize == AudioRecord.ERROR_BAD_VALUE) {
                 throw new IOException("Invalid parameter !");
             }
 
-            mAudioRecord = new AudioRecord(mAudioSource, mSampleRate, mChannelConfig, mAudioFormat, minBufferSize * 4);
+            // keep at least two blocks, so that one is captured while the other is read
+            int recordBufferSize = Math.max(minBufferSize * 4, mBuffSize * 2);
+            mRecordBufferNs = recordBufferSize / mFrameSize * 1000000000L / mSampleRate;
+            mAudioRecord = new AudioRecord(mAudioSource, mSampleRate, mChannelConfig, mAudioFormat, recordBufferSize);
             if (mAudioRecord.getState() == AudioRecord.STATE_UNINITIALIZED) {
+                mAudioRecord.release();
+                mAudioRecord = null; // not opened, so that it could be opened again
                 throw new IOException("AudioRecord initialize fail !");
             }
 
+            // ring is allocated once per open, so capture and read are allocation free.
+            // ring and blocks held by readers never take more slots than this.
+            synchronized (mRingLock) {
+                mRing = new SampleMetaRing(mRingDepth);
+                mRingSlots = new int[mRing.capacity()];
+                int slotCount = mRing.capacity() + mCursors.size() * mCaptureDepth;
+                mSlots = new ByteBuffer[slotCount];
+                mSlotRefs = new int[slotCount];
+                mSlotInRing = new boolean[slotCount];
+                mFreeSlots = new int[slotCount];
+                for (int i = 0; i < slotCount; i++) {
+                    mSlots[i] = ByteBuffer.allocateDirect(mBuffSize);
+                    mFreeSlots[i] = i;
+                }
+                mFreeCount = slotCount;
+                for (Cursor cursor : mCursors) {
+                    cursor.views = new ByteBuffer[slotCount];
+                    for (int i = 0; i < slotCount; i++) {
+                        cursor.views[i] = mSlots[i].duplicate();
+                    }
+                    cursor.eosView = mSlots[0].duplicate();
+                    cursor.held = new int[mCaptureDepth];
+                    cursor.heldCount = 0;
+                }
+                mCaptureFinished = false;
+                mCaptureFailed = false;
+                resetCursor(mCursor);
+            }
+
             mAudioRecord.startRecording();
+            mCaptureThread = new CaptureThread();
+            mCaptureThread.start();
 
             Log.i(TAG, "Start audio capture success !, audio status = " + mAudioRecord.getState());
             return this;
@@ -104,13 +330,56 @@ public class AudioRecordNode extends DataNode {
             return;
         }
 
+        // stop() of AudioRecord also returns blocking read of capture thread
+        mCaptureThread.mClosing = true;
+        synchronized (mPauseLock) {
+            mPauseLock.notifyAll();
+        }
         if (mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
             mAudioRecord.stop();
         }
+        try {
+            mCaptureThread.join();
+        } catch (InterruptedException e) {
+            Log.w(TAG, "close()# interrupted. wait for capture thread anyway");
+            Thread.currentThread().interrupt();
+            mCaptureThread.interrupt();
+            while (mCaptureThread.isAlive()) {
+                try {
+                    mCaptureThread.join();
+                } catch (InterruptedException ignored) {
+                    // keep waiting
+                }
+            }
+        }
+        mCaptureThread = null;
         mAudioRecord.release();
+        mAudioRecord = null;
+
+        synchronized (mRingLock) {
+            Log.i(TAG, "close()# captured: " + mRing.tail() + " blocks, reader lost: " + mCursor.lostCount
+                    + ", underruns: " + mCursor.underrunCount);
+            int held = 0;
+            for (Cursor cursor : mCursors) {
+                held += cursor.heldCount;
+                cursor.views = null;
+                cursor.held = null;
+                cursor.heldCount = 0;
+            }
+            if (held > 0) {
+                Log.w(TAG, "close()# " + held + " samples not released by readers");
+            }
+            mRing = null;
+            mRingSlots = null;
+            mSlots = null;
+            mSlotRefs = null;
+            mSlotInRing = null;
+            mFreeSlots = null;
+        }
 
-        // release cache
-        clearCache();
+        if (mOverrunCount > 0) {
+            Log.w(TAG, "close()# " + mOverrunCount + " overruns, audio lost");
+        }
 
         Log.i(TAG, "Stop audio capture success !");
     }
@@ -126,10 +395,9 @@ public class AudioRecordNode extends DataNode {
         throw new InvalidParameterException("method not supported");
     }
 
-    @Deprecated
     @Override
     public DirectReader getDirectReader() {
-        throw new InvalidParameterException("method not supported");
+        return mDirectReader;
     }
 
     @Deprecated
@@ -138,98 +406,509 @@ public class AudioRecordNode extends DataNode {
         throw new InvalidParameterException("method not supported");
     }
 
-    private int readBegin(Data data) {
-        ByteBuffer buffer = getCached(mBuffSize);
-        buffer.clear();
+    @Override
+    protected DataPort[] getPorts() {
+        return new DataPort[] {mBufferedReader, mDirectReader};
+    }
+
+    private void resetCursor(Cursor cursor) {
+        cursor.next = mRing.tail(); // samples captured from now on
+        cursor.lostCount = 0;
+        cursor.underrunCount = 0;
+        cursor.stopped = false;
+    }
+
+    /**
+     * hold ring slot of next block of cursor, until {@link #readEnd(Cursor, Data)}
+     */
+    private int readBegin(Cursor cursor, Data data) {
+        synchronized (mRingLock) {
+            if (mRing == null) {
+                return RESULT_NOT_OPEN;
+            }
+            if (cursor.heldCount == cursor.held.length) {
+                return RESULT_RETRY; // capture depth reached. wait for samples to be released.
+            }
+
+            int result = nextBlock(cursor, data, 0);
+            if (result != RESULT_OK) {
+                return result;
+            }
+            if (AudioData.isEof(data)) {
+                // empty buffer, so that consumers could copy eos like any sample. no slot held.
+                cursor.eosView.clear();
+                cursor.eosView.limit(0);
+                AudioData.setBuffer(data, cursor.eosView);
+                return RESULT_OK;
+            }
 
-        int nRead = mAudioRecord.read(buffer.array(), 0, buffer.capacity());
-        Log.d(TAG, "readBegin: buff = " + buffer.array() + ", nRead = " + nRead);
-        if (nRead == 0) {
-            return RESULT_RETRY;
-        } else if (nRead < 0) {
-            Log.e(TAG, "Error: " + nRead);
+            int slot = mRingSlots[(int) cursor.next & (mRingSlots.length - 1)];
+            ByteBuffer view = cursor.views[slot];
+            view.clear();
+            view.limit(data.getSize());
+            mSlotRefs[slot] ++;
+            cursor.held[cursor.heldCount ++] = slot;
+            cursor.next ++;
+            AudioData.setBuffer(data, view);
+            if (DEBUG) {
+                Log.d(TAG, "readBegin: slot = " + slot + ", size = " + data.getSize());
+            }
+            return RESULT_OK;
+        }
+    }
+
+    /**
+     * copy pcm into buffer of data, from its position
+     */
+    private int read(Cursor cursor, Data data) {
+        ByteBuffer buffer = AudioData.getBuffer(data);
+        if (buffer == null) {
+            Log.e(TAG, "read()# no buffer to read into");
             return RESULT_ERROR;
-        } else {
-            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-            if (mStopped) {
-                info.offset = 0;
-                info.size = 0;
-                info.presentationTimeUs = 0;
-                info.flags = MediaCodec.BUFFER_FLAG_END_OF_STREAM;
-            } else {
-                info.offset = 0;
-                info.size = nRead;
-                info.presentationTimeUs = mSampleCount * 1000000L / mSampleRate;
-                info.flags = MediaCodec.BUFFER_FLAG_KEY_FRAME;
+        }
 
-                mSampleCount += nRead / mBytesPerSample / mChannelCount;
+        synchronized (mRingLock) {
+            if (mRing == null) {
+                return RESULT_NOT_OPEN;
             }
 
-            AudioData.setBufferInfo(data, info);
-            AudioData.setBuffer(data, buffer);
+            int offset = buffer.position();
+            int result = nextBlock(cursor, data, offset);
+            if (result != RESULT_OK || AudioData.isEof(data)) {
+                return result;
+            }
+            if (data.getSize() > buffer.remaining()) {
+                Log.e(TAG, "read()# buffer too small: " + buffer);
+                return RESULT_ERROR;
+            }
 
+            // view of slot is used under lock only, since slot is not held
+            ByteBuffer view = cursor.views[mRingSlots[(int) cursor.next & (mRingSlots.length - 1)]];
+            view.clear();
+            view.limit(data.getSize());
+            buffer.put(view);
+            buffer.position(offset);
+            cursor.next ++;
             return RESULT_OK;
         }
     }
 
-    private int readEnd(Data data) {
+    /**
+     * release slot held by {@link #readBegin(Cursor, Data)}
+     */
+    private int readEnd(Cursor cursor, Data data) {
         ByteBuffer buffer = AudioData.getBuffer(data);
-        cache(buffer);
+        if (buffer == null) {
+            return RESULT_OK; // eos
+        }
+
+        synchronized (mRingLock) {
+            if (mRing == null) {
+                return RESULT_NOT_OPEN;
+            }
+            if (buffer == cursor.eosView) {
+                AudioData.setBuffer(data, null);
+                return RESULT_OK;
+            }
+
+            for (int i = 0; i < cursor.heldCount; i++) {
+                int slot = cursor.held[i];
+                if (cursor.views[slot] == buffer) {
+                    System.arraycopy(cursor.held, i + 1, cursor.held, i, cursor.heldCount - i - 1);
+                    cursor.heldCount --;
+                    mSlotRefs[slot] --;
+                    if (mSlotRefs[slot] == 0 && !mSlotInRing[slot]) {
+                        mFreeSlots[mFreeCount ++] = slot;
+                    }
+                    AudioData.setBuffer(data, null);
+                    return RESULT_OK;
+                }
+            }
+        }
+        Log.e(TAG, "readEnd()# buffer not read from this reader: " + buffer);
+        return RESULT_ERROR;
+    }
+
+    /**
+     * set info of next block of cursor, or eos after all blocks captured are read. cursor is not
+     * moved. Called under mRingLock.
+     * @param offset offset of data
+     */
+    private int nextBlock(Cursor cursor, Data data, int offset) {
+        if (cursor.next < mRing.head()) {
+            cursor.lostCount += mRing.head() - cursor.next; // overwritten before read
+            cursor.next = mRing.head();
+        }
+
+        if (cursor.next >= mRing.tail()) {
+            if (mCaptureFailed) {
+                return RESULT_ERROR;
+            } else if (cursor.stopped || mCaptureFinished) {
+                data.setInfo(offset, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                return RESULT_OK;
+            }
+            cursor.underrunCount ++;
+            return RESULT_RETRY; // woken by capture thread
+        }
+
+        data.setInfo(offset, mRing.getSize(cursor.next), mRing.getPts(cursor.next), mRing.getFlags(cursor.next));
         return RESULT_OK;
     }
 
-    public void stop() {
-        mStopped = true;
+    private int getPendingCount(Cursor cursor) {
+        synchronized (mRingLock) {
+            return mRing != null ? (int) (mRing.tail() - Math.max(cursor.next, mRing.head())) : 0;
+        }
     }
 
-    private ByteBuffer getCached(int newBuffSize) {
-        synchronized (mCachedBuffs) {
-            for (Object obj : mCachedBuffs) {
-                if (obj == null) {
-                    continue;
+    /**
+     * @return pts of pcm captured
+     */
+    private long onCaptured(int nRead) {
+        // AudioRecord drops audio if not read before its buffer is full
+        long now = System.nanoTime();
+        if (mLastReadNs != 0 && now - mLastReadNs > mRecordBufferNs) {
+            mOverrunCount ++;
+        }
+        mLastReadNs = now;
+
+        long pts = mSampleCount * 1000000L / mSampleRate;
+        mSampleCount += nRead / mBytesPerSample / mChannelCount;
+        return pts;
+    }
+
+    private void notifyRingReaders() {
+        // indexed, so that no iterator is allocated for each block
+        for (int i = 0; i < mRingReaders.size(); i++) {
+            mRingReaders.get(i).notifyReady();
+        }
+    }
+
+    /**
+     * Reads AudioRecord in time, whatever readers of ring do
+     */
+    private class CaptureThread extends Thread {
+        volatile boolean mClosing = false;
+
+        CaptureThread() {
+            super("AudioCapture");
+        }
+
+        @Override
+        public void run() {
+            ThreadControl.getDefault().setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+            boolean failed = false;
+            while (!mClosing && !mStopped) {
+                if (!waitWhilePaused()) {
+                    break;
+                }
+
+                int slot;
+                synchronized (mRingLock) {
+                    // drop oldest block, so that ring has room for the block captured
+                    if (mRing.size() == mRing.capacity()) {
+                        int oldest = mRingSlots[(int) mRing.head() & (mRingSlots.length - 1)];
+                        mSlotInRing[oldest] = false;
+                        if (mSlotRefs[oldest] == 0) {
+                            mFreeSlots[mFreeCount ++] = oldest;
+                        }
+                        mRing.remove(1);
+                    }
+                    // never empty: slots not free are in ring or held within capture depth
+                    slot = mFreeSlots[-- mFreeCount];
                 }
 
-                WeakReference<ByteBuffer> ref = (WeakReference<ByteBuffer>) obj;
-                ByteBuffer buff;
-                if ((buff = ref.get()) == null) {
+                ByteBuffer buffer = mSlots[slot];
+                buffer.clear();
+                int nRead = mAudioRecord.read(buffer, mBuffSize, AudioRecord.READ_BLOCKING);
+                if (DEBUG) {
+                    Log.d(TAG, "capture: nRead = " + nRead);
+                }
+                if (nRead <= 0) {
+                    synchronized (mRingLock) {
+                        mFreeSlots[mFreeCount ++] = slot;
+                    }
+                    if (nRead < 0) {
+                        Log.e(TAG, "Error: " + nRead);
+                        failed = true;
+                        break;
+                    }
                     continue;
                 }
 
-                return buff;
+                long pts = onCaptured(nRead);
+                synchronized (mRingLock) {
+                    mRingSlots[(int) mRing.tail() & (mRingSlots.length - 1)] = slot;
+                    mSlotInRing[slot] = true;
+                    mRing.add(0, nRead, pts, MediaCodec.BUFFER_FLAG_KEY_FRAME, 0);
+                }
+                notifyRingReaders();
             }
 
-            return ByteBuffer.wrap(new byte[newBuffSize]);
+            synchronized (mRingLock) {
+                mCaptureFinished = true;
+                mCaptureFailed = failed && !mClosing;
+            }
+            notifyRingReaders();
         }
-    }
 
-    private void cache(ByteBuffer buff) {
-        synchronized (mCachedBuffs) {
-            for (int i = 0; i < mCachedBuffs.length; i++) {
-                // try find null item
-                if (mCachedBuffs[i] == null) {
-                    mCachedBuffs[i] = new WeakReference<>(buff);
-                    return;
+        /**
+         * AudioRecord is stopped while paused, and started again on resume
+         * @return false if closed or stopped while paused
+         */
+        private boolean waitWhilePaused() {
+            synchronized (mPauseLock) {
+                if (!mPaused) {
+                    return true;
                 }
 
-                // try find released WeakReference
-                WeakReference<ByteBuffer> ref = (WeakReference<ByteBuffer>) mCachedBuffs[i];
-                if (ref.get() == null) {
-                    mCachedBuffs[i] = new WeakReference<>(buff);
-                    return;
+                mAudioRecord.stop();
+                long pauseStartNs = System.nanoTime();
+                Log.i(TAG, "capture paused");
+                while (mPaused && !mClosing && !mStopped) {
+                    try {
+                        mPauseLock.wait();
+                    } catch (InterruptedException e) {
+                        return false; // interrupted by close()
+                    }
+                }
+                if (mClosing || mStopped) {
+                    return false;
                 }
+
+                // pts keeps real time as camera timestamps do, so muxer removes paused time
+                // from both tracks alike
+                long pausedNs = System.nanoTime() - pauseStartNs;
+                mSampleCount += pausedNs * mSampleRate / 1000000000L;
+                mLastReadNs = 0; // pause is not overrun
+                mAudioRecord.startRecording();
+                Log.i(TAG, "capture resumed after " + pausedNs / 1000000 + "ms");
+                return true;
             }
         }
     }
 
-    private void clearCache() {
-        for (int i = 0; i < mCachedBuffs.length; i++) {
-            if (mCachedBuffs[i] == null) {
-                continue;
+    /**
+     * stop capture. readers get eos after blocks captured already.
+     */
+    public void stop() {
+        mStopped = true;
+        synchronized (mPauseLock) {
+            mPauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * pause capture, e.g. between recordings of a task kept warm. AudioRecord is stopped, so the
+     * microphone is released, and readers wait for samples without cpu. Blocks captured already
+     * are still read.
+     */
+    public void pause() {
+        synchronized (mPauseLock) {
+            mPaused = true;
+        }
+    }
+
+    /**
+     * resume capture paused by {@link #pause()}
+     */
+    public void resume() {
+        synchronized (mPauseLock) {
+            mPaused = false;
+            mPauseLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        synchronized (mPauseLock) {
+            return mPaused;
+        }
+    }
+
+    @Override
+    public boolean requestEos() {
+        stop();
+        return true;
+    }
+
+    @Override
+    public int getPendingCount() {
+        return getPendingCount(mCursor);
+    }
+
+    @Override
+    public int getLatencyClass() {
+        return LATENCY_REALTIME;
+    }
+
+    /**
+     * @return reads late enough that AudioRecord buffer was full and audio was lost, since opened.
+     * capture thread keeps it 0 unless starved of cpu.
+     */
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    /**
+     * @return blocks overwritten in ring before read by readers of this node, since opened.
+     * grows if downstream stalls longer than ring depth.
+     */
+    public long getRingOverrunCount() {
+        synchronized (mRingLock) {
+            return mCursor.lostCount;
+        }
+    }
+
+    /**
+     * @return reads of this node finding ring empty, i.e. reader waiting for capture. About one
+     * per block if reader keeps up with capture.
+     */
+    public long getUnderrunCount() {
+        synchronized (mRingLock) {
+            return mCursor.underrunCount;
+        }
+    }
+
+    /**
+     * Reader of capture shared with other taps. Opening a tap opens the capture if not opened yet.
+     */
+    public class Tap extends DataNode {
+        private final SharedNode mHandle;
+        private final Cursor mTapCursor = new Cursor();
+        private boolean mOpened = false;
+
+        private BufferedReader mTapBufferedReader = new BufferedReader() {
+            @Override
+            public int readBegin(Data data) {
+                return AudioRecordNode.this.readBegin(mTapCursor, data);
+            }
+
+            @Override
+            public int readEnd(Data data) {
+                return AudioRecordNode.this.readEnd(mTapCursor, data);
+            }
+
+            @Override
+            public boolean canSignalReady() {
+                return true;
+            }
+        };
+
+        private DirectReader mTapDirectReader = new DirectReader() {
+            @Override
+            public int read(Data data) {
+                return AudioRecordNode.this.read(mTapCursor, data);
+            }
+
+            @Override
+            public int getMaxSampleSize() {
+                return mBuffSize;
+            }
+
+            @Override
+            public boolean canSignalReady() {
+                return true;
+            }
+        };
+
+        Tap(SharedNode handle) {
+            mHandle = handle;
+        }
+
+        @Override
+        public synchronized DataNode open() throws IOException {
+            if (mOpened) {
+                return this;
+            }
+
+            mHandle.open();
+            synchronized (mRingLock) {
+                resetCursor(mTapCursor);
+            }
+            mOpened = true;
+            return this;
+        }
+
+        @Override
+        public synchronized boolean isOpened() {
+            return mOpened;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!mOpened) {
+                return;
             }
 
-            WeakReference<ByteBuffer> ref = (WeakReference<ByteBuffer>) mCachedBuffs[i];
-            ref.clear();
-            mCachedBuffs[i] = null;
+            mOpened = false;
+            synchronized (mRingLock) {
+                if (mTapCursor.lostCount > 0) {
+                    Log.w(TAG, "Tap.close()# " + mTapCursor.lostCount + " samples lost");
+                }
+            }
+            mHandle.close();
+        }
+
+        @Override
+        public boolean requestEos() {
+            mTapCursor.stopped = true;
+            return true;
+        }
+
+        @Override
+        public int getPendingCount() {
+            return AudioRecordNode.this.getPendingCount(mTapCursor);
+        }
+
+        @Override
+        public int getLatencyClass() {
+            return LATENCY_REALTIME;
+        }
+
+        /**
+         * @return samples overwritten before read by this tap, since opened
+         */
+        public long getLostCount() {
+            synchronized (mRingLock) {
+                return mTapCursor.lostCount;
+            }
+        }
+
+        /**
+         * @return reads of this tap finding ring empty
+         */
+        public long getUnderrunCount() {
+            synchronized (mRingLock) {
+                return mTapCursor.underrunCount;
+            }
+        }
+
+        @Override
+        public BufferedReader getBufferedReader() {
+            return mTapBufferedReader;
+        }
+
+        @Deprecated
+        @Override
+        public BufferedWriter getBufferedWriter() {
+            throw new InvalidParameterException("method not supported");
+        }
+
+        @Override
+        public DirectReader getDirectReader() {
+            return mTapDirectReader;
+        }
+
+        @Deprecated
+        @Override
+        public DirectWriter getDirectWriter() {
+            throw new InvalidParameterException("method not supported");
+        }
+
+        @Override
+        protected DataPort[] getPorts() {
+            return new DataPort[] {mTapBufferedReader, mTapDirectReader};
         }
     }
 }
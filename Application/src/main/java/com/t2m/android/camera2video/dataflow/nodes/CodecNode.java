@@ -3,14 +3,19 @@ package com.t2m.android.camera2video.dataflow.nodes;
 
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 import android.view.Surface;
 
 import com.t2m.android.camera2video.dataflow.data.AudioData;
 import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.data.DataBatch;
 import com.t2m.android.camera2video.dataflow.node.BufferedReader;
 import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
 import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
 import com.t2m.android.camera2video.dataflow.node.DirectReader;
 import com.t2m.android.camera2video.dataflow.node.DirectWriter;
 
@@ -23,25 +28,56 @@ import java.security.InvalidParameterException;
  */
 public class CodecNode extends DataNode {
     private static final String TAG = CodecNode.class.getSimpleName();
+    private static final boolean DEBUG = false;
 
-    private static final String KEY_CODEC_OUTPUT_INDEX = "key-codec-output-index";
-    private static final String KEY_CODEC_INPUT_INDEX = "key-codec-input-index";
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
 
     private MediaCodec mCodec;
     private boolean mIsEncoder;
     private MediaFormat mFormat;
     private Surface mSurface;
 
+    // async mode: buffers are reported by MediaCodec.Callback and ports signal ready.
+    private boolean mAsync = false;
+    private HandlerThread mCallbackThread;
+    private final IndexQueue mInputQueue = new IndexQueue();
+    private final IndexQueue mOutputQueue = new IndexQueue();
+    private volatile boolean mCodecError = false;
+
+    // info for dequeue. only used by reader thread
+    private final MediaCodec.BufferInfo mOutputInfo = new MediaCodec.BufferInfo();
+
     private BufferedReader mBufferedReader = new BufferedReader() {
         @Override
         public int readBegin(Data data) {
-            return CodecNode.this.readBegin(data);
+            return CodecNode.this.readBegin(data, DEQUEUE_TIMEOUT_US);
+        }
+
+        @Override
+        public int readBegin(DataBatch batch) {
+            // only wait for first sample. rest of batch takes samples ready now.
+            batch.clear();
+            long timeoutUs = DEQUEUE_TIMEOUT_US;
+            while (!batch.isFull()) {
+                int result = CodecNode.this.readBegin(batch.next(), timeoutUs);
+                if (result != RESULT_OK) {
+                    return batch.size() > 0 ? RESULT_OK : result;
+                }
+                batch.add();
+                timeoutUs = 0;
+            }
+            return RESULT_OK;
         }
 
         @Override
         public int readEnd(Data data) {
             return CodecNode.this.readEnd(data);
         }
+
+        @Override
+        public boolean canSignalReady() {
+            return mAsync;
+        }
     };
     private BufferedWriter mBufferedWriter = new BufferedWriter() {
         @Override
@@ -53,6 +89,40 @@ public class CodecNode extends DataNode {
         public int writeEnd(Data data) {
             return CodecNode.this.writeEnd(data);
         }
+
+        @Override
+        public boolean canSignalReady() {
+            return mAsync;
+        }
+    };
+
+    private MediaCodec.Callback mCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            mInputQueue.add(index, null);
+            mBufferedWriter.notifyReady();
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            mOutputQueue.add(index, info);
+            mBufferedReader.notifyReady();
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            Log.e(TAG, "codec error", e);
+            mCodecError = true;
+
+            // wake up paths so that error could be reported
+            mBufferedReader.notifyReady();
+            mBufferedWriter.notifyReady();
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            // do nothing. format is fetched for config sample in readBegin()
+        }
     };
 
     public CodecNode(boolean isEncoder, MediaFormat format)  {
@@ -65,6 +135,22 @@ public class CodecNode extends DataNode {
         }
     }
 
+    /**
+     * Use async mode. buffers are delivered by {@link MediaCodec.Callback}, and reader & writer
+     * signal ready, so paths are woken up instead of polling.<br>
+     * Should be called before {@link #open()}.
+     * @param async true for async mode
+     * @return this
+     */
+    public CodecNode setAsync(boolean async) {
+        if (isOpened()) {
+            throw new IllegalStateException("Should not change mode after opened");
+        }
+
+        mAsync = async;
+        return this;
+    }
+
     @Override
     public DataNode open() throws IOException {
         if (isOpened()) {
@@ -72,22 +158,92 @@ public class CodecNode extends DataNode {
         }
         if (mIsEncoder) {
             mCodec = MediaCodec.createEncoderByType(mFormat.getString(MediaFormat.KEY_MIME));
+            setupCallback();
             mCodec.configure(mFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
             if (MediaFormat.MIMETYPE_VIDEO_AVC.equals(mFormat.getString(MediaFormat.KEY_MIME))){
                 mSurface = mCodec.createInputSurface();	// API >= 18
             }
         } else {
             mCodec = MediaCodec.createDecoderByType(mFormat.getString(MediaFormat.KEY_MIME));
+            setupCallback();
             mCodec.configure(mFormat, null, null, 0);
         }
         mCodec.start();
         return this;
     }
 
+    private void setupCallback() {
+        if (!mAsync) {
+            return;
+        }
+
+        // callback must be set before configure
+        mInputQueue.clear();
+        mOutputQueue.clear();
+        mCodecError = false;
+        mCallbackThread = new HandlerThread(TAG + "#Callback");
+        mCallbackThread.start();
+        mCodec.setCallback(mCallback, new Handler(mCallbackThread.getLooper()));
+    }
+
     public Surface getInputSurface() {
         return mSurface;
     }
 
+    /**
+     * @return {@link MediaFormat#KEY_MAX_INPUT_SIZE} of format, 0 if not set
+     */
+    public int getMaxInputSize() {
+        return mFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE) ? mFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : 0;
+    }
+
+    /**
+     * end stream of surface input encoder. encoder provides eos after frames received already.
+     * codec with buffer input gets eos from its writer.
+     */
+    @Override
+    public boolean requestEos() {
+        if (!isOpened() || !mIsEncoder || mSurface == null) {
+            return false;
+        }
+
+        mCodec.signalEndOfInputStream();
+        return true;
+    }
+
+    @Override
+    public int getPendingCount() {
+        return mAsync ? mOutputQueue.size() : 0;
+    }
+
+    /**
+     * ask encoder to output a key frame soon, e.g. for a new file or after resume
+     */
+    public void requestSyncFrame() {
+        if (!isOpened()) {
+            return;
+        }
+
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        mCodec.setParameters(params);
+    }
+
+    /**
+     * drop input frames of surface input encoder, so that nothing is encoded while recording is
+     * paused. codec is kept configured.
+     * @param suspend true to drop input frames
+     */
+    public void setSuspended(boolean suspend) {
+        if (!isOpened() || mSurface == null) {
+            return;
+        }
+
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_SUSPEND, suspend ? 1 : 0);
+        mCodec.setParameters(params);
+    }
+
     @Override
     public boolean isOpened() {
         return mCodec != null;
@@ -100,6 +256,10 @@ public class CodecNode extends DataNode {
             mCodec.release();
             mCodec = null;
         }
+        if (mCallbackThread != null) {
+            mCallbackThread.quitSafely();
+            mCallbackThread = null;
+        }
         if (mSurface != null) {
             mSurface.release();
             mSurface = null;
@@ -128,17 +288,32 @@ public class CodecNode extends DataNode {
         throw new InvalidParameterException("method not supported");
     }
 
-    private int readBegin(Data data) {
+    @Override
+    protected DataPort[] getPorts() {
+        return new DataPort[] {mBufferedReader, mBufferedWriter};
+    }
+
+    private int readBegin(Data data, long timeoutUs) {
         if (!isOpened()) {
             return RESULT_NOT_OPEN;
         }
 
-        // create buffer info & get output index & clear config format
-        MediaCodec.BufferInfo info = AudioData.setBufferInfo(data, new MediaCodec.BufferInfo());
+        // get output index & buffer info
+        MediaCodec.BufferInfo info = mOutputInfo;
         int encoderStatus = 0;
-        encoderStatus = mCodec.dequeueOutputBuffer(info, 10000);
-        Log.d(TAG, "readBegin: encoderStatus = " + encoderStatus);
-        int outputIndex = setOutputIndex(data, encoderStatus);
+        if (mAsync) {
+            if (mCodecError) {
+                return RESULT_ERROR;
+            }
+            encoderStatus = mOutputQueue.poll(info);
+        } else {
+            encoderStatus = mCodec.dequeueOutputBuffer(info, timeoutUs);
+        }
+        if (DEBUG) {
+            Log.d(TAG, "readBegin: encoderStatus = " + encoderStatus);
+        }
+        int outputIndex = data.setCodecIndex(encoderStatus);
+        data.setInfo(info);
 
         if (outputIndex < 0) {
             return RESULT_RETRY;
@@ -163,8 +338,8 @@ public class CodecNode extends DataNode {
             return RESULT_NOT_OPEN;
         }
 
-        int index = getOutputIndex(data);
-        if (index > 0) {
+        int index = data.getCodecIndex();
+        if (index >= 0) {
             mCodec.releaseOutputBuffer(index, false);
         }
         return RESULT_OK;
@@ -176,12 +351,17 @@ public class CodecNode extends DataNode {
         }
 
 
-        int inputIndex = setInputIndex(data, mCodec.dequeueInputBuffer(10000));
-        Log.d(TAG, "writeBegin: inputIndex = " + inputIndex + ", data = " + data);
+        if (mAsync && mCodecError) {
+            return RESULT_ERROR;
+        }
+        int inputIndex = data.setCodecIndex(mAsync ? mInputQueue.poll(null) : mCodec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US));
+        if (DEBUG) {
+            Log.d(TAG, "writeBegin: inputIndex = " + inputIndex + ", data = " + data);
+        }
         if (inputIndex < 0) {
             return RESULT_RETRY;
         } else {
-            AudioData.setBufferInfo(data, new MediaCodec.BufferInfo());
+            data.setInfo(0, 0, 0, 0);
             ByteBuffer buffer = AudioData.setBuffer(data, mCodec.getInputBuffer(inputIndex));
             assert buffer != null;
 
@@ -196,35 +376,102 @@ public class CodecNode extends DataNode {
         }
 
         // get index
-        int index = getInputIndex(data);
-        if (index > 0) {
-            // get info
-            MediaCodec.BufferInfo info = AudioData.getBufferInfo(data);
-            assert info != null;
-
-            Log.d(TAG, "writeEnd: isConfig = " + AudioData.isConfig(data) +", info :" + info);
+        int index = data.getCodecIndex();
+        if (index >= 0) {
+            if (DEBUG) {
+                Log.d(TAG, "writeEnd: isConfig = " + AudioData.isConfig(data) + ", data :" + data);
+            }
             if (AudioData.isConfig(data)) {
                 mCodec.queueInputBuffer(index, 0, 0, 0, 0); // we do not accept config
             } else {
-                mCodec.queueInputBuffer(index, info.offset, info.size, info.presentationTimeUs, info.flags);
+                mCodec.queueInputBuffer(index, data.getOffset(), data.getSize(), data.getPts(), data.getFlags());
             }
         }
         return RESULT_OK;
     }
 
-    private static int setOutputIndex(Data data, int index) {
-        return data.set(KEY_CODEC_OUTPUT_INDEX, index);
-    }
+    /**
+     * Queue for buffer index (and buffer info for output) reported by callback.
+     */
+    private static class IndexQueue {
+        private static final int INIT_CAPACITY = 16;
+
+        private int[] mIndex = new int[INIT_CAPACITY];
+        private int[] mOffset = new int[INIT_CAPACITY];
+        private int[] mSize = new int[INIT_CAPACITY];
+        private long[] mPts = new long[INIT_CAPACITY];
+        private int[] mFlags = new int[INIT_CAPACITY];
+        private int mHead = 0;
+        private int mCount = 0;
+
+        synchronized void add(int index, MediaCodec.BufferInfo info) {
+            if (mCount == mIndex.length) {
+                grow();
+            }
 
-    private static int getOutputIndex(Data data) {
-        return data.get(KEY_CODEC_OUTPUT_INDEX, -1000);
-    }
+            int pos = (mHead + mCount) % mIndex.length;
+            mIndex[pos] = index;
+            if (info != null) {
+                mOffset[pos] = info.offset;
+                mSize[pos] = info.size;
+                mPts[pos] = info.presentationTimeUs;
+                mFlags[pos] = info.flags;
+            }
+            mCount ++;
+        }
 
-    private static int setInputIndex(Data data, int index) {
-        return data.set(KEY_CODEC_INPUT_INDEX, index);
-    }
+        /**
+         * poll index
+         * @param info buffer info to fill, could be null
+         * @return buffer index, or {@link MediaCodec#INFO_TRY_AGAIN_LATER} if empty
+         */
+        synchronized int poll(MediaCodec.BufferInfo info) {
+            if (mCount == 0) {
+                return MediaCodec.INFO_TRY_AGAIN_LATER;
+            }
+
+            int pos = mHead;
+            if (info != null) {
+                info.offset = mOffset[pos];
+                info.size = mSize[pos];
+                info.presentationTimeUs = mPts[pos];
+                info.flags = mFlags[pos];
+            }
+            mHead = (mHead + 1) % mIndex.length;
+            mCount --;
+            return mIndex[pos];
+        }
+
+        synchronized void clear() {
+            mHead = 0;
+            mCount = 0;
+        }
+
+        synchronized int size() {
+            return mCount;
+        }
 
-    private static int getInputIndex(Data data) {
-        return data.get(KEY_CODEC_INPUT_INDEX, -1000);
+        private void grow() {
+            int capacity = mIndex.length * 2;
+            int[] index = new int[capacity];
+            int[] offset = new int[capacity];
+            int[] size = new int[capacity];
+            long[] pts = new long[capacity];
+            int[] flags = new int[capacity];
+            for (int i = 0; i < mCount; i++) {
+                int pos = (mHead + i) % mIndex.length;
+                index[i] = mIndex[pos];
+                offset[i] = mOffset[pos];
+                size[i] = mSize[pos];
+                pts[i] = mPts[pos];
+                flags[i] = mFlags[pos];
+            }
+            mIndex = index;
+            mOffset = offset;
+            mSize = size;
+            mPts = pts;
+            mFlags = flags;
+            mHead = 0;
+        }
     }
 }
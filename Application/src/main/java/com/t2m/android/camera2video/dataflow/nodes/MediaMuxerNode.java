@@ -11,6 +11,7 @@ import com.t2m.android.camera2video.dataflow.data.Data;
 import com.t2m.android.camera2video.dataflow.node.BufferedReader;
 import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
 import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
 import com.t2m.android.camera2video.dataflow.node.DirectReader;
 import com.t2m.android.camera2video.dataflow.node.DirectWriter;
 
@@ -22,12 +23,19 @@ import java.util.Timer;
 import java.util.TimerTask;
 
 /**
- * MediaMuxer Node for saving audio track
+ * MediaMuxer Node for saving audio track<br>
+ * Node could be kept opened between recordings: {@link #finishOutput()} saves current file and
+ * drops samples until {@link #switchOutput(String)} starts a new file with formats known already.
+ * {@link #pause()} and {@link #resume()} drop samples in between, without gap in pts.
  */
 public class MediaMuxerNode extends DataNode {
     private static final String TAG = MediaMuxerNode.class.getSimpleName();
+    private static final boolean DEBUG = false;
 
     private MediaMuxer mMuxer = null;
+    private boolean mOpened = false;
+    private boolean mPaused = false;
+    private boolean mWaitKeyFrame = false; // drop video until key frame after switch or resume
     private String mPath;
     private String mDefPath;
 
@@ -39,6 +47,8 @@ public class MediaMuxerNode extends DataNode {
 
     private MediaFormat mAudioFormat;
     private MediaFormat mVideoFormat;
+    private final MediaCodec.BufferInfo mWriteInfo = new MediaCodec.BufferInfo();
+    private TimestampPolicy mTimestampPolicy = new TimestampPolicy(TimestampPolicy.MODE_SOURCE);
 
     private DirectWriter mDirectWriter = new DirectWriter() {
         @Override
@@ -52,28 +62,141 @@ public class MediaMuxerNode extends DataNode {
     }
 
 
+    /**
+     * set policy to map pts of samples to pts written. Should be called before {@link #open()}.
+     * @param policy policy
+     * @return this
+     */
+    public MediaMuxerNode setTimestampPolicy(TimestampPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy should not be null");
+        }
+        if (isOpened()) {
+            throw new IllegalStateException("Should not change timestamp policy after opened");
+        }
+
+        mTimestampPolicy = policy;
+        return this;
+    }
+
+    /**
+     * @return policy, for drift statistics
+     */
+    public TimestampPolicy getTimestampPolicy() {
+        return mTimestampPolicy;
+    }
+
     @Override
-    public DataNode open() throws IOException {
+    public synchronized DataNode open() throws IOException {
         if (isOpened()) {
             return this; // already opened
         }
+        mTimestampPolicy.reset();
+        mPaused = false;
+        mWaitKeyFrame = false;
         mMuxer = new MediaMuxer(mPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
         mMuxer.setOrientationHint(90);
+        mOpened = true;
         return this;
     }
 
     @Override
-    public boolean isOpened() {
-        return mMuxer != null;
+    public synchronized boolean isOpened() {
+        return mOpened;
     }
 
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
+        cancelTimer();
+        Log.i(TAG, "close()# " + mTimestampPolicy);
+        mOpened = false;
+        LowClose();
+    }
+
+    /**
+     * save current file. samples are dropped until {@link #switchOutput(String)}.
+     */
+    public synchronized void finishOutput() throws IOException {
+        if (!isOpened()) {
+            throw new IllegalStateException("Should finish output after opened");
+        }
+
+        cancelTimer();
+        Log.i(TAG, "finishOutput()# " + mPath + ", " + mTimestampPolicy);
+        LowClose();
+    }
+
+    /**
+     * save current file if any, and continue recording to a new file. Tracks are added by formats
+     * of config samples received already, so encoders need not to be restarted.
+     * @param path path of new file
+     */
+    public synchronized void switchOutput(String path) throws IOException {
+        if (!isOpened()) {
+            throw new IllegalStateException("Should switch output after opened");
+        }
+
+        finishOutput();
+        mDefPath = mPath = path;
+        num = 0;
+        restartMuxer();
+        if (mMuxStarted) {
+            startTimer();
+        }
+    }
+
+    /**
+     * drop samples until {@link #resume()}. time paused is not in output.
+     */
+    public synchronized void pause() {
+        mPaused = true;
+        mTimestampPolicy.pause();
+    }
+
+    public synchronized void resume() {
+        if (mPaused) {
+            mPaused = false;
+            mWaitKeyFrame = true;
+            mTimestampPolicy.resume();
+        }
+    }
+
+    public synchronized boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * create muxer for current path, and start it if formats of both tracks are known
+     */
+    private void restartMuxer() throws IOException {
+        mMuxer = new MediaMuxer(mPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        mMuxer.setOrientationHint(90);
+        if (mAudioFormat == null || mVideoFormat == null) {
+            return; // start on config samples
+        }
+
+        mAudioTrackIndex = mMuxer.addTrack(mAudioFormat);
+        mIsAudioConfigured = true;
+
+        mVideoTrackIndex = mMuxer.addTrack(mVideoFormat);
+        mIsVideoConfigured = true;
+
+        mMuxer.start();
+        mMuxStarted = true;
+        mWaitKeyFrame = true;
+    }
+
+    private void startTimer() {
+        mTimer = new Timer();
+        mRecordTask = new RecordTask();
+        mTimer.schedule(mRecordTask, 5000, 5000);
+    }
+
+    private void cancelTimer() {
         if(mTimer != null) {
             mTimer.cancel();
             mTimer= null;
         }
-        LowClose();
     }
 
     private void LowClose() throws IOException{
@@ -116,56 +239,77 @@ public class MediaMuxerNode extends DataNode {
         return mDirectWriter;
     }
 
+    @Override
+    protected DataPort[] getPorts() {
+        return new DataPort[] {mDirectWriter};
+    }
+
+    @Override
+    public int getLatencyClass() {
+        return LATENCY_BACKGROUND;
+    }
+
     private boolean mMuxStarted = false;
 
-    private int write(Data data) {
-        // TODO sync later
-        if (!isOpened() && !mChangingMuxer) {
+    // synchronized with output switching. writers of audio and video are in different threads.
+    private synchronized int write(Data data) {
+        if (!isOpened()) {
             return RESULT_NOT_OPEN;
         }
 
         if (AudioData.isConfig(data)) {
             Log.d(TAG, "write: the muxer is " + mMuxer);
+            // keep format for next output even if no output now
             if (MediaFormat.MIMETYPE_VIDEO_AVC.equals(AudioData.getConfigFormat(data).getString(MediaFormat.KEY_MIME))){
                 mVideoFormat = AudioData.getConfigFormat(data);
-                mVideoTrackIndex = mMuxer.addTrack(mVideoFormat);
-                mIsVideoConfigured = true;
+                if (mMuxer != null && !mMuxStarted) {
+                    mVideoTrackIndex = mMuxer.addTrack(mVideoFormat);
+                    mIsVideoConfigured = true;
+                }
             } else if (MediaFormat.MIMETYPE_AUDIO_AAC.equals(AudioData.getConfigFormat(data).getString(MediaFormat.KEY_MIME))) {
                 mAudioFormat = AudioData.getConfigFormat(data);
-                mAudioTrackIndex = mMuxer.addTrack(mAudioFormat);
-                mIsAudioConfigured = true;
+                if (mMuxer != null && !mMuxStarted) {
+                    mAudioTrackIndex = mMuxer.addTrack(mAudioFormat);
+                    mIsAudioConfigured = true;
+                }
             }
             Log.d(TAG, "write: is config data : " + data);
             if (!mMuxStarted && mIsVideoConfigured && mIsAudioConfigured) {
                 mMuxer.start();
                 mMuxStarted = true;
-                mTimer = new Timer();
-                mRecordTask = new RecordTask();
-                mTimer.schedule(mRecordTask, 5000, 5000);
+                startTimer();
             }
             return RESULT_OK;
+        } else if (mMuxer == null || mPaused) {
+            return RESULT_OK; // no output or paused, drop
         } else {
             if (mMuxStarted && mIsAudioConfigured && mIsVideoConfigured) {
-                ByteBuffer buffer = null;
-                MediaCodec.BufferInfo info = null;
-
-                buffer = AudioData.getBuffer(data);
+                ByteBuffer buffer = AudioData.getBuffer(data);
                 assert buffer != null;
-                info = AudioData.getBufferInfo(data);
-                assert info != null;
-                buffer.position(info.offset);
-
-                // write encoded data to muxer(need to adjust presentationTimeUs.
-                if (info != null && info.size > 0) {
-                    info.presentationTimeUs = getPTSUs();
-                    boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
-                    Log.d(TAG, "write: ----type  = " + AudioData.getConfigFormat(data).getString(MediaFormat.KEY_MIME) + ", key frame = " + keyFrame);
-                    if (MediaFormat.MIMETYPE_VIDEO_AVC.equals(AudioData.getConfigFormat(data).getString(MediaFormat.KEY_MIME))){
+                buffer.position(data.getOffset());
+
+                // write encoded data to muxer, with pts mapped by timestamp policy.
+                // sample may be shared with other writers, so adjust a copy of info.
+                if (data.getSize() > 0) {
+                    boolean video = MediaFormat.MIMETYPE_VIDEO_AVC.equals(AudioData.getConfigFormat(data).getString(MediaFormat.KEY_MIME));
+                    if (video && mWaitKeyFrame) {
+                        if ((data.getFlags() & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 0) {
+                            return RESULT_OK; // file should start from key frame
+                        }
+                        mWaitKeyFrame = false;
+                    }
+                    long ptsUs = mTimestampPolicy.apply(video ? TimestampPolicy.TRACK_VIDEO : TimestampPolicy.TRACK_AUDIO, data.getPts());
+                    MediaCodec.BufferInfo info = mWriteInfo;
+                    info.set(data.getOffset(), data.getSize(), ptsUs, data.getFlags());
+                    if (DEBUG) {
+                        boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                        Log.d(TAG, "write: ----type  = " + AudioData.getConfigFormat(data).getString(MediaFormat.KEY_MIME) + ", key frame = " + keyFrame);
+                    }
+                    if (video) {
                         mMuxer.writeSampleData(mVideoTrackIndex, buffer, info);
                     } else {
                         mMuxer.writeSampleData(mAudioTrackIndex, buffer, info);
                     }
-                    prevOutputPTSUs = info.presentationTimeUs;
                 }
                 return RESULT_OK;
             } else {
@@ -175,56 +319,34 @@ public class MediaMuxerNode extends DataNode {
         }
     }
 
-
-    private long prevOutputPTSUs = 0;
-    /**
-     * get next encoding presentationTimeUs
-     * @return
-     */
-    protected long getPTSUs() {
-        long result = System.nanoTime() / 1000L;
-        // presentationTimeUs should be monotonic
-        // otherwise muxer fail to write
-        if (result < prevOutputPTSUs)
-            result = (prevOutputPTSUs - result) + result;
-        return result;
-    }
-
     private ArrayList<ByteBuffer> mBufferList;
     private Timer mTimer = null;
     private int num = 0;
     private RecordTask mRecordTask;
-    private boolean mChangingMuxer = false;
     private class RecordTask extends TimerTask {
 
         @Override
         public void run() {
-            try {
-                if (mMuxStarted) {
-                    Log.d(TAG, "muxer is started,we need stop it");
-                    mChangingMuxer = true;
-                    LowClose();
+            synchronized (MediaMuxerNode.this) {
+                if (mRecordTask != this || mMuxer == null) {
+                    return; // output finished
+                }
+                try {
+                    if (mMuxStarted) {
+                        Log.d(TAG, "muxer is started,we need stop it");
+                        Log.i(TAG, "RecordTask# " + mTimestampPolicy);
+                        LowClose();
+                    }
+                    num = ++num;
+                    String file = mDefPath;
+                    String perName = file.substring(0,file.lastIndexOf("."));
+                    mPath = perName + "_" + String.format("%04d", num) + ".mp4";
+                    Log.d(TAG, "current file name is :" + mPath);
+
+                    restartMuxer();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
-                num = ++num;
-                String file = mDefPath;
-                String perName = file.substring(0,file.lastIndexOf("."));
-                mPath = perName + "_" + String.format("%04d", num) + ".mp4";
-                Log.d(TAG, "current file name is :" + mPath);
-
-                mMuxer = new MediaMuxer(mPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-                mMuxer.setOrientationHint(90);
-
-                mAudioTrackIndex = mMuxer.addTrack(mAudioFormat);
-                mIsAudioConfigured = true;
-
-                mVideoTrackIndex = mMuxer.addTrack(mVideoFormat);
-                mIsVideoConfigured = true;
-
-                mMuxer.start();
-                mChangingMuxer =false;
-                mMuxStarted = true;
-            } catch (IOException e) {
-                e.printStackTrace();
             }
         }
     }
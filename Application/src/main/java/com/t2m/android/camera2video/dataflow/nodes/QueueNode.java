@@ -0,0 +1,455 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.nodes;
+
+import android.util.Log;
+
+import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.BufferPool;
+import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.node.BufferedReader;
+import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
+import com.t2m.android.camera2video.dataflow.node.DirectReader;
+import com.t2m.android.camera2video.dataflow.node.DirectWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Queue Node to decouple two paths.<br>
+ * Backed by a preallocated single-producer/single-consumer ring, so a stall of the consumer
+ * (e.g. muxer writing to disk) is absorbed by the queue instead of blocking the producer.<br>
+ * Exactly one path should write to and one path should read from this node.<br>
+ * Config and eos samples are never dropped: oldest sample is not dropped if it is one of them, and
+ * one written by buffered writer to a full queue waits for the consumer, up to
+ * {@link #ESSENTIAL_WAIT_MS}.
+ */
+public class QueueNode extends DataNode {
+    private static final String TAG = QueueNode.class.getSimpleName();
+
+    /**
+     * writer retries when queue is full
+     */
+    public static final int OVERFLOW_BLOCK = 0;
+    /**
+     * oldest sample not read yet is dropped when queue is full
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+    /**
+     * the sample being written is dropped when queue is full
+     */
+    public static final int OVERFLOW_DROP_NEWEST = 2;
+
+    /**
+     * max wait of buffered writer for a free slot for config or eos, since writeEnd could not retry
+     */
+    public static final long ESSENTIAL_WAIT_MS = 1000;
+
+    private static final long NONE = -1;
+
+    private final int mDepth;
+    private final int mSlotSize;
+    private final int mOverflowPolicy;
+
+    private Data[] mSlots;
+    private Data mScratch; // for sample to drop
+
+    // sequence of next sample to read. consumer claims sample by CAS, producer may CAS to drop oldest.
+    private final AtomicLong mHead = new AtomicLong();
+    // sequence of next sample to write. written by producer only.
+    private volatile long mTail = 0;
+    // sequence of sample being read by consumer, or NONE
+    private volatile long mClaimed = NONE;
+    // sequence of sample being written by buffered writer, or NONE for scratch
+    private long mWriting = NONE;
+    // producer waiting for a free slot in writeEnd, or null
+    private volatile Thread mWaiter = null;
+
+    private volatile long mDroppedCount = 0;
+    private volatile long mHighWaterMark = 0;
+
+    private BufferedReader mBufferedReader = new BufferedReader() {
+        @Override
+        public int readBegin(Data data) {
+            return QueueNode.this.readBegin(data);
+        }
+
+        @Override
+        public int readEnd(Data data) {
+            return QueueNode.this.readEnd(data);
+        }
+
+        @Override
+        public boolean canSignalReady() {
+            return true;
+        }
+    };
+
+    private BufferedWriter mBufferedWriter = new BufferedWriter() {
+        @Override
+        public int writeBegin(Data data) {
+            return QueueNode.this.writeBegin(data);
+        }
+
+        @Override
+        public int writeEnd(Data data) {
+            return QueueNode.this.writeEnd(data);
+        }
+
+        @Override
+        public boolean canSignalReady() {
+            return true;
+        }
+    };
+
+    private DirectWriter mDirectWriter = new DirectWriter() {
+        @Override
+        public int write(Data data) {
+            return QueueNode.this.write(data);
+        }
+
+        @Override
+        public boolean canSignalReady() {
+            return true;
+        }
+    };
+
+    /**
+     * @param depth max samples in queue
+     * @param slotSize max bytes of one sample
+     * @param overflowPolicy {@link #OVERFLOW_BLOCK}, {@link #OVERFLOW_DROP_OLDEST} or {@link #OVERFLOW_DROP_NEWEST}
+     */
+    public QueueNode(int depth, int slotSize, int overflowPolicy) {
+        if (depth < 1 || slotSize < 1 || slotSize > BufferPool.MAX_BUFF_SIZE) {
+            throw new InvalidParameterException("invalid depth: " + depth + ", slot size: " + slotSize);
+        }
+        if (overflowPolicy != OVERFLOW_BLOCK && overflowPolicy != OVERFLOW_DROP_OLDEST
+                && overflowPolicy != OVERFLOW_DROP_NEWEST) {
+            throw new InvalidParameterException("invalid overflow policy: " + overflowPolicy);
+        }
+
+        mDepth = depth;
+        mSlotSize = slotSize;
+        mOverflowPolicy = overflowPolicy;
+    }
+
+    @Override
+    public DataNode open() throws IOException {
+        if (isOpened()) {
+            return this; // already opened
+        }
+
+        // slot buffers are from shared pool
+        Data[] slots = new Data[mDepth];
+        try {
+            for (int i = 0; i < mDepth; i++) {
+                slots[i] = createSlot();
+            }
+            mScratch = createSlot();
+        } catch (IOException e) {
+            releaseSlots(slots);
+            throw e;
+        }
+
+        mHead.set(0);
+        mTail = 0;
+        mClaimed = NONE;
+        mWriting = NONE;
+        mDroppedCount = 0;
+        mHighWaterMark = 0;
+        mSlots = slots;
+        return this;
+    }
+
+    private Data createSlot() throws IOException {
+        ByteBuffer buffer = BufferPool.getDefault().acquire(mSlotSize);
+        if (buffer == null) {
+            throw new IOException("no buffer for slot. " + BufferPool.getDefault());
+        }
+
+        Data slot = new Data();
+        AudioData.setBuffer(slot, buffer);
+        return slot;
+    }
+
+    private void releaseSlots(Data[] slots) {
+        for (Data slot : slots) {
+            if (slot != null) {
+                AudioData.releaseBuff(slot);
+            }
+        }
+        if (mScratch != null) {
+            AudioData.releaseBuff(mScratch);
+            mScratch = null;
+        }
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mSlots != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!isOpened()) {
+            return;
+        }
+
+        long remain = getOccupancy();
+        if (remain > 0) {
+            Log.w(TAG, "close()# " + remain + " samples dropped");
+        }
+        Log.i(TAG, "close()# dropped: " + mDroppedCount + ", high water mark: " + mHighWaterMark + "/" + mDepth);
+
+        Data[] slots = mSlots;
+        mSlots = null;
+        releaseSlots(slots);
+    }
+
+    @Override
+    public BufferedReader getBufferedReader() {
+        return mBufferedReader;
+    }
+
+    @Override
+    public BufferedWriter getBufferedWriter() {
+        return mBufferedWriter;
+    }
+
+    @Deprecated
+    @Override
+    public DirectReader getDirectReader() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Override
+    public DirectWriter getDirectWriter() {
+        return mDirectWriter;
+    }
+
+    @Override
+    protected DataPort[] getPorts() {
+        return new DataPort[] {mBufferedReader, mBufferedWriter, mDirectWriter};
+    }
+
+    public int getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * @return samples queued and not read yet
+     */
+    public long getOccupancy() {
+        return mTail - mHead.get();
+    }
+
+    @Override
+    public int getPendingCount() {
+        return isOpened() ? (int) getOccupancy() : 0;
+    }
+
+    /**
+     * @return max occupancy since opened
+     */
+    public long getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    /**
+     * @return samples dropped due to overflow since opened
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * reserve slot for next sample. producer only.
+     * @param dropOldest whether to drop oldest sample if full, unless it is config or eos
+     * @return sequence of reserved slot, or NONE if full
+     */
+    private long reserve(boolean dropOldest) {
+        long tail = mTail;
+        // head should be read before claimed. see readBegin()
+        long head = mHead.get();
+        long claimed = mClaimed;
+        if (claimed != NONE && tail - claimed >= mDepth) {
+            return NONE; // slot is being read
+        }
+        if (tail - head < mDepth) {
+            return tail;
+        }
+        // slot at head is published and only written by producer, so it could be checked before CAS
+        if (dropOldest && !isEssential(mSlots[(int) (head % mDepth)]) && mHead.compareAndSet(head, head + 1)) {
+            // consumer failed to claim this slot, so it is free now
+            mDroppedCount ++;
+            return tail;
+        }
+        return NONE;
+    }
+
+    private void publish(long sequence) {
+        mTail = sequence + 1;
+
+        long occupancy = mTail - mHead.get();
+        if (occupancy > mHighWaterMark) {
+            mHighWaterMark = occupancy;
+        }
+
+        mBufferedReader.notifyReady();
+    }
+
+    private static boolean isEssential(Data data) {
+        return AudioData.isConfig(data) || AudioData.isEof(data);
+    }
+
+    private int writeBegin(Data data) {
+        if (!isOpened()) {
+            return RESULT_NOT_OPEN;
+        }
+
+        mWriting = reserve(mOverflowPolicy == OVERFLOW_DROP_OLDEST);
+        Data slot;
+        if (mWriting != NONE) {
+            slot = mSlots[(int) (mWriting % mDepth)];
+        } else if (mOverflowPolicy == OVERFLOW_BLOCK) {
+            return RESULT_RETRY;
+        } else {
+            slot = mScratch; // sample is not known yet. decide to drop or not in writeEnd()
+        }
+
+        ByteBuffer buffer = AudioData.getBuffer(slot);
+        assert buffer != null;
+        buffer.clear();
+        AudioData.setBuffer(data, buffer);
+        return RESULT_OK;
+    }
+
+    private int writeEnd(Data data) {
+        if (!isOpened()) {
+            return RESULT_NOT_OPEN;
+        }
+
+        if (mWriting == NONE) {
+            if (!isEssential(data)) {
+                mDroppedCount ++;
+                return RESULT_OK;
+            }
+
+            // never drop config or eos. wait for a free slot.
+            if ((mWriting = awaitSlot()) == NONE) {
+                mDroppedCount ++;
+                Log.e(TAG, "writeEnd()# no free slot in " + ESSENTIAL_WAIT_MS + "ms, essential sample dropped: " + data);
+                return RESULT_ERROR;
+            }
+            mScratch.setInfo(data);
+            AudioData.copyData(mScratch, mSlots[(int) (mWriting % mDepth)]);
+        }
+
+        Data slot = mSlots[(int) (mWriting % mDepth)];
+        slot.setInfo(data);
+        slot.setConfigFormat(data.getConfigFormat());
+        publish(mWriting);
+        mWriting = NONE;
+        return RESULT_OK;
+    }
+
+    /**
+     * wait until a slot is reserved, or {@link #ESSENTIAL_WAIT_MS} passed. producer only.
+     * @return sequence of reserved slot, or NONE if timeout
+     */
+    private long awaitSlot() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ESSENTIAL_WAIT_MS);
+        mWaiter = Thread.currentThread();
+        try {
+            long sequence;
+            while ((sequence = reserve(true)) == NONE) {
+                long remain = deadline - System.nanoTime();
+                if (remain <= 0 || Thread.currentThread().isInterrupted()) {
+                    return NONE;
+                }
+                LockSupport.parkNanos(this, remain); // unparked by readEnd()
+            }
+            return sequence;
+        } finally {
+            mWaiter = null;
+        }
+    }
+
+    private int write(Data data) {
+        if (!isOpened()) {
+            return RESULT_NOT_OPEN;
+        }
+
+        // essential sample could replace oldest one unless blocking
+        boolean essential = isEssential(data);
+        long sequence = reserve(mOverflowPolicy == OVERFLOW_DROP_OLDEST
+                || (essential && mOverflowPolicy != OVERFLOW_BLOCK));
+        if (sequence == NONE) {
+            // also for drop oldest, when oldest is essential or being read
+            if (mOverflowPolicy != OVERFLOW_BLOCK && !essential) {
+                mDroppedCount ++;
+                return RESULT_OK;
+            }
+            return RESULT_RETRY;
+        }
+
+        Data slot = mSlots[(int) (sequence % mDepth)];
+        AudioData.copyData(data, slot);
+        AudioData.setConfigFormat(slot, AudioData.getConfigFormat(data));
+        publish(sequence);
+        return RESULT_OK;
+    }
+
+    private int readBegin(Data data) {
+        if (!isOpened()) {
+            return RESULT_NOT_OPEN;
+        }
+
+        // claim head. claimed must be set before head is moved, so that producer never reuses the slot.
+        long head;
+        while (true) {
+            head = mHead.get();
+            if (head >= mTail) {
+                return RESULT_RETRY; // empty
+            }
+
+            mClaimed = head;
+            if (mHead.compareAndSet(head, head + 1)) {
+                break;
+            }
+            mClaimed = NONE; // dropped by producer. try next
+        }
+
+        Data slot = mSlots[(int) (head % mDepth)];
+        ByteBuffer buffer = AudioData.getBuffer(slot);
+        assert buffer != null;
+        buffer.clear();
+        buffer.position(slot.getOffset());
+        buffer.limit(slot.getOffset() + slot.getSize());
+
+        AudioData.setBuffer(data, buffer);
+        data.setInfo(slot);
+        data.setConfigFormat(slot.getConfigFormat());
+        return RESULT_OK;
+    }
+
+    private int readEnd(Data data) {
+        if (!isOpened()) {
+            return RESULT_NOT_OPEN;
+        }
+
+        mClaimed = NONE;
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        mBufferedWriter.notifyReady();
+        mDirectWriter.notifyReady();
+        return RESULT_OK;
+    }
+}
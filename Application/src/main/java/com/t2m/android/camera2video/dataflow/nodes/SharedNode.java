@@ -0,0 +1,314 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.nodes;
+
+import android.media.MediaCodec;
+
+import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.data.DataBatch;
+import com.t2m.android.camera2video.dataflow.node.BufferedReader;
+import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
+import com.t2m.android.camera2video.dataflow.node.DirectReader;
+import com.t2m.android.camera2video.dataflow.node.DirectWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SharedNode<br>
+ * Handle of a node shared by several {@link com.t2m.android.camera2video.dataflow.task.DataFlowTask}s.
+ * Each task adds its own handle from {@link #share()}. The node is opened when the first handle is
+ * opened, and closed when the last handle is closed, so a task finishing first does not close the
+ * node still used by others.<br>
+ * Ports are those of the node, and a port should still be used by one path only. For several
+ * readers of one capture, use {@link AudioRecordNode#newTap()}.<br>
+ * Each handle has its own eos: {@link #requestEos()} of a handle other than the last one opened
+ * ends stream of its readers only, so one task could be stopped gracefully while the node keeps
+ * running for others. Eos of the last handle is requested from the node itself.
+ */
+public class SharedNode extends DataNode {
+    private static class Shared {
+        final DataNode node;
+        int refCount = 0;
+
+        Shared(DataNode node) {
+            this.node = node;
+        }
+    }
+
+    private final Shared mShared;
+    private boolean mOpened = false;
+    private volatile boolean mEos = false; // eos of this handle, requested while shared
+    private final BufferedReader mBufferedReader;
+    private final DirectReader mDirectReader;
+
+    /**
+     * @param node node to share
+     */
+    public SharedNode(DataNode node) {
+        this(new Shared(node));
+    }
+
+    private SharedNode(Shared shared) {
+        mShared = shared;
+        DataNode node = shared.node;
+        mBufferedReader = node.hasPort(BufferedReader.class) ? new EosBufferedReader(node.getBufferedReader()) : null;
+        mDirectReader = node.hasPort(DirectReader.class) ? new EosDirectReader(node.getDirectReader()) : null;
+    }
+
+    /**
+     * @return new handle of the same node
+     */
+    public SharedNode share() {
+        return new SharedNode(mShared);
+    }
+
+    public DataNode getNode() {
+        return mShared.node;
+    }
+
+    /**
+     * @return handles opened
+     */
+    public int getRefCount() {
+        synchronized (mShared) {
+            return mShared.refCount;
+        }
+    }
+
+    @Override
+    public DataNode open() throws IOException {
+        synchronized (mShared) {
+            if (mOpened) {
+                return this;
+            }
+
+            if (mShared.refCount == 0) {
+                mShared.node.open();
+            }
+            mShared.refCount ++;
+            mOpened = true;
+            mEos = false;
+            return this;
+        }
+    }
+
+    @Override
+    public boolean isOpened() {
+        synchronized (mShared) {
+            return mOpened;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (mShared) {
+            if (!mOpened) {
+                return;
+            }
+
+            mOpened = false;
+            mShared.refCount --;
+            if (mShared.refCount == 0) {
+                mShared.node.close();
+            }
+        }
+    }
+
+    /**
+     * eos is requested from the node only by the last handle opened, so that other tasks keep
+     * running. Other handles end stream of their own readers, after the sample being read.
+     */
+    @Override
+    public boolean requestEos() {
+        synchronized (mShared) {
+            if (!mOpened) {
+                return false;
+            }
+            if (mShared.refCount == 1) {
+                return mShared.node.requestEos();
+            }
+            if (mBufferedReader == null && mDirectReader == null) {
+                return false; // nothing to end
+            }
+            mEos = true;
+        }
+
+        // wake paths waiting for samples of node
+        if (mBufferedReader != null) {
+            mBufferedReader.notifyReady();
+        }
+        if (mDirectReader != null) {
+            mDirectReader.notifyReady();
+        }
+        return true;
+    }
+
+    @Override
+    public int getPendingCount() {
+        return mShared.node.getPendingCount();
+    }
+
+    @Override
+    public int getLatencyClass() {
+        return mShared.node.getLatencyClass();
+    }
+
+    @Override
+    public BufferedReader getBufferedReader() {
+        return mBufferedReader != null ? mBufferedReader : mShared.node.getBufferedReader();
+    }
+
+    @Override
+    public BufferedWriter getBufferedWriter() {
+        return mShared.node.getBufferedWriter();
+    }
+
+    @Override
+    public DirectReader getDirectReader() {
+        return mDirectReader != null ? mDirectReader : mShared.node.getDirectReader();
+    }
+
+    @Override
+    public DirectWriter getDirectWriter() {
+        return mShared.node.getDirectWriter();
+    }
+
+    @Override
+    protected DataPort[] getPorts() {
+        DataNode node = mShared.node;
+        List<DataPort> ports = new ArrayList<>(4);
+        if (mBufferedReader != null) {
+            ports.add(mBufferedReader);
+        }
+        if (node.hasPort(BufferedWriter.class)) {
+            ports.add(node.getBufferedWriter());
+        }
+        if (mDirectReader != null) {
+            ports.add(mDirectReader);
+        }
+        if (node.hasPort(DirectWriter.class)) {
+            ports.add(node.getDirectWriter());
+        }
+        return ports.toArray(new DataPort[ports.size()]);
+    }
+
+    private static void setEos(Data data) {
+        data.setInfo(0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+    }
+
+    /**
+     * reader of node, providing eos of handle instead of next sample once requested
+     */
+    private class EosBufferedReader extends BufferedReader {
+        private final BufferedReader mReader;
+        private final ByteBuffer mEosBuffer = ByteBuffer.allocate(0); // empty buffer of eos
+        private boolean mEosRead = false; // eos of handle provided and not ended yet
+
+        EosBufferedReader(BufferedReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public int readBegin(Data data) {
+            if (mEos) {
+                // with empty buffer, so that consumers could copy eos like any sample
+                setEos(data);
+                AudioData.setBuffer(data, mEosBuffer);
+                mEosRead = true;
+                return RESULT_OK;
+            }
+            return mReader.readBegin(data);
+        }
+
+        @Override
+        public int readEnd(Data data) {
+            if (mEosRead) {
+                mEosRead = false;
+                AudioData.setBuffer(data, null);
+                return RESULT_OK;
+            }
+            return mReader.readEnd(data);
+        }
+
+        @Override
+        public int readBegin(DataBatch batch) {
+            if (mEos) {
+                batch.clear();
+                readBegin(batch.next());
+                batch.add();
+                return RESULT_OK;
+            }
+            return mReader.readBegin(batch);
+        }
+
+        @Override
+        public int readEnd(DataBatch batch) {
+            if (mEosRead) {
+                return readEnd(batch.get(0));
+            }
+            return mReader.readEnd(batch);
+        }
+
+        @Override
+        public boolean canSignalReady() {
+            return mReader.canSignalReady();
+        }
+
+        @Override
+        public void setOnReadyListener(OnReadyListener listener) {
+            super.setOnReadyListener(listener);
+            mReader.setOnReadyListener(listener == null ? null : new OnReadyListener() {
+                @Override
+                public void onReady(DataPort port) {
+                    notifyReady();
+                }
+            });
+        }
+    }
+
+    /**
+     * reader of node, providing eos of handle instead of next sample once requested
+     */
+    private class EosDirectReader extends DirectReader {
+        private final DirectReader mReader;
+
+        EosDirectReader(DirectReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public int read(Data data) {
+            if (mEos) {
+                setEos(data);
+                return RESULT_OK;
+            }
+            return mReader.read(data);
+        }
+
+        @Override
+        public int getMaxSampleSize() {
+            return mReader.getMaxSampleSize();
+        }
+
+        @Override
+        public boolean canSignalReady() {
+            return mReader.canSignalReady();
+        }
+
+        @Override
+        public void setOnReadyListener(OnReadyListener listener) {
+            super.setOnReadyListener(listener);
+            mReader.setOnReadyListener(listener == null ? null : new OnReadyListener() {
+                @Override
+                public void onReady(DataPort port) {
+                    notifyReady();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.nodes;
+
+/**
+ * TimestampPolicy<br>
+ * Maps pts of samples from sources to pts written to muxer. Source pts are kept and rebased to
+ * a common clock ({@link System#nanoTime()} in us), so spacing of samples is exact and queueing
+ * or write stalls do not cause jitter. Output pts of each track is strictly increasing.<br>
+ * Relative source (e.g. pts from sample count of {@link AudioRecordNode}, starting from 0) is
+ * anchored to common clock at its first sample. Absolute source (e.g. camera timestamps through
+ * video encoder) is already in common clock.<br>
+ * Drift is the difference between write time and rebased pts of a sample, i.e. pipeline latency
+ * plus drift of source clock. Growing drift of a track over a long recording means its source
+ * clock runs slower than common clock.<br>
+ * Time between {@link #pause()} and {@link #resume()} is removed from output pts, so recording
+ * continues without gap after resume.<br>
+ * Not thread safe.
+ */
+public class TimestampPolicy {
+    /**
+     * keep source pts, rebased to common clock
+     */
+    public static final int MODE_SOURCE = 0;
+    /**
+     * ignore source pts, use time of write. source of jitter, for compatibility only.
+     */
+    public static final int MODE_WALL_CLOCK = 1;
+
+    public static final int TRACK_AUDIO = 0;
+    public static final int TRACK_VIDEO = 1;
+    private static final int TRACK_COUNT = 2;
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final int mMode;
+    private final boolean[] mRelative = new boolean[TRACK_COUNT];
+
+    private long mBaseUs; // common clock of first sample of all tracks, as output pts 0
+    private long mPausedUs; // total paused time, removed from output pts
+    private long mPauseStartUs;
+    private final long[] mOffsetUs = new long[TRACK_COUNT]; // source pts to common clock
+    private final long[] mLastUs = new long[TRACK_COUNT]; // last output pts
+    private final long[] mSamples = new long[TRACK_COUNT];
+    private final long[] mAdjusted = new long[TRACK_COUNT]; // samples moved to keep order
+    private final long[] mDriftUs = new long[TRACK_COUNT];
+    private final long[] mMinDriftUs = new long[TRACK_COUNT];
+    private final long[] mMaxDriftUs = new long[TRACK_COUNT];
+
+    /**
+     * @param mode {@link #MODE_SOURCE} or {@link #MODE_WALL_CLOCK}
+     */
+    public TimestampPolicy(int mode) {
+        if (mode != MODE_SOURCE && mode != MODE_WALL_CLOCK) {
+            throw new IllegalArgumentException("invalid mode: " + mode);
+        }
+
+        mMode = mode;
+        mRelative[TRACK_AUDIO] = true;
+        mRelative[TRACK_VIDEO] = false;
+        reset();
+    }
+
+    /**
+     * set whether source pts of track is relative. Default is relative for audio and absolute for
+     * video.
+     * @param track {@link #TRACK_AUDIO} or {@link #TRACK_VIDEO}
+     * @param relative true if source pts starts from 0, false if it is in common clock
+     * @return this
+     */
+    public TimestampPolicy setRelative(int track, boolean relative) {
+        checkTrack(track);
+        mRelative[track] = relative;
+        return this;
+    }
+
+    /**
+     * forget all tracks, for a new recording
+     */
+    public void reset() {
+        mBaseUs = NONE;
+        mPausedUs = 0;
+        mPauseStartUs = NONE;
+        for (int i = 0; i < TRACK_COUNT; i++) {
+            mOffsetUs[i] = NONE;
+            mLastUs[i] = NONE;
+            mSamples[i] = 0;
+            mAdjusted[i] = 0;
+            mDriftUs[i] = 0;
+            mMinDriftUs[i] = Long.MAX_VALUE;
+            mMaxDriftUs[i] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * samples are not written from now on
+     */
+    public void pause() {
+        if (mPauseStartUs == NONE) {
+            mPauseStartUs = System.nanoTime() / 1000;
+        }
+    }
+
+    /**
+     * samples are written again. paused time is removed from output pts.
+     */
+    public void resume() {
+        if (mPauseStartUs != NONE) {
+            mPausedUs += System.nanoTime() / 1000 - mPauseStartUs;
+            mPauseStartUs = NONE;
+        }
+    }
+
+    public boolean isPaused() {
+        return mPauseStartUs != NONE;
+    }
+
+    /**
+     * @param track {@link #TRACK_AUDIO} or {@link #TRACK_VIDEO}
+     * @param ptsUs pts of sample from source
+     * @return pts to write
+     */
+    public long apply(int track, long ptsUs) {
+        checkTrack(track);
+
+        long nowUs = System.nanoTime() / 1000;
+        long commonUs;
+        if (mMode == MODE_WALL_CLOCK) {
+            commonUs = nowUs;
+        } else {
+            if (mOffsetUs[track] == NONE) {
+                mOffsetUs[track] = mRelative[track] ? nowUs - ptsUs : 0;
+            }
+            commonUs = ptsUs + mOffsetUs[track];
+
+            long driftUs = nowUs - commonUs;
+            mDriftUs[track] = driftUs;
+            mMinDriftUs[track] = Math.min(mMinDriftUs[track], driftUs);
+            mMaxDriftUs[track] = Math.max(mMaxDriftUs[track], driftUs);
+        }
+
+        if (mBaseUs == NONE) {
+            mBaseUs = commonUs;
+        }
+        long resultUs = Math.max(commonUs - mBaseUs - mPausedUs, 0);
+
+        // muxer fails to write if pts of track is not increasing
+        if (mLastUs[track] != NONE && resultUs <= mLastUs[track]) {
+            resultUs = mLastUs[track] + 1;
+            mAdjusted[track] ++;
+        }
+        mLastUs[track] = resultUs;
+        mSamples[track] ++;
+        return resultUs;
+    }
+
+    /**
+     * @return drift of last sample of track
+     */
+    public long getDriftUs(int track) {
+        checkTrack(track);
+        return mDriftUs[track];
+    }
+
+    /**
+     * @return max drift minus min drift of track since reset. 0 for a perfect source clock and
+     * constant latency.
+     */
+    public long getDriftRangeUs(int track) {
+        checkTrack(track);
+        return mSamples[track] > 0 && mMode == MODE_SOURCE ? mMaxDriftUs[track] - mMinDriftUs[track] : 0;
+    }
+
+    /**
+     * @return samples of track whose pts is moved to keep order
+     */
+    public long getAdjustedCount(int track) {
+        checkTrack(track);
+        return mAdjusted[track];
+    }
+
+    private static void checkTrack(int track) {
+        if (track < 0 || track >= TRACK_COUNT) {
+            throw new IllegalArgumentException("invalid track: " + track);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("TimestampPolicy{mode: ").append(mMode)
+                .append(", paused: ").append(mPausedUs).append("us");
+        for (int i = 0; i < TRACK_COUNT; i++) {
+            builder.append(i == TRACK_AUDIO ? ", audio: {" : ", video: {")
+                    .append("samples: ").append(mSamples[i])
+                    .append(", last pts: ").append(mLastUs[i] == NONE ? 0 : mLastUs[i])
+                    .append("us, drift: ").append(mDriftUs[i])
+                    .append("us, drift range: ").append(getDriftRangeUs(i))
+                    .append("us, adjusted: ").append(mAdjusted[i])
+                    .append("}");
+        }
+        return builder.append("}").toString();
+    }
+}
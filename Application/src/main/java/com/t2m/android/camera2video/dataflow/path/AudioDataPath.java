@@ -38,7 +38,12 @@ public class AudioDataPath extends DataPath {
     }
 
     @Override
-    protected void createBuff(Data data) {
-        AudioData.createBuff(data);
+    protected void createBuff(Data data, int size) {
+        AudioData.createBuff(data, size);
+    }
+
+    @Override
+    protected void releaseBuff(Data data) {
+        AudioData.releaseBuff(data);
     }
 }
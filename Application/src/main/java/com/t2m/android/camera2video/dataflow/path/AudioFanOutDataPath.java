@@ -0,0 +1,40 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.path;
+
+import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.node.BufferedReader;
+
+/**
+ * FanOutDataPath to link one data node to several data nodes
+ */
+public class AudioFanOutDataPath extends FanOutDataPath {
+    public AudioFanOutDataPath(String name, BufferedReader reader) {
+        super(name, reader);
+    }
+
+    @Override
+    protected void copyData(Data fromData, Data toData) {
+        AudioData.copyData(fromData, toData);
+    }
+
+    @Override
+    protected boolean isEof(Data data) {
+        return AudioData.isEof(data);
+    }
+
+    @Override
+    protected void createBuff(Data data, int size) {
+        AudioData.createBuff(data, size);
+    }
+
+    @Override
+    protected void releaseBuff(Data data) {
+        AudioData.releaseBuff(data);
+    }
+
+    @Override
+    protected boolean isConfig(Data data) {
+        return AudioData.isConfig(data);
+    }
+}
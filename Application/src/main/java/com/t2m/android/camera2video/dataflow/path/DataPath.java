@@ -1,27 +1,52 @@
 /* Copyright (C) 2018 Tcl Corporation Limited */
 package com.t2m.android.camera2video.dataflow.path;
 
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Process;
 import android.util.Log;
 
 import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.data.DataBatch;
 import com.t2m.android.camera2video.dataflow.node.BufferedReader;
 import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
 import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
 import com.t2m.android.camera2video.dataflow.node.DirectReader;
 import com.t2m.android.camera2video.dataflow.node.DirectWriter;
 
+import java.util.concurrent.CountDownLatch;
+
 /**
  * Data path from Node and Node
  */
 public abstract class DataPath {
     private static final String TAG = DataPath.class.getSimpleName(); // MODIFIED by Fan.Hu, 2018-02-09,BUG-5727229
 
-    private static final boolean DEBUG_RETRY = true; // MODIFIED by Fan.Hu, 2018-01-19,BUG-5709670
+    private static final boolean DEBUG_RETRY = false; // MODIFIED by Fan.Hu, 2018-01-19,BUG-5709670
 
     private static final int PROCESS_BUFFERED_2_BUFFERED = 0;
     private static final int PROCESS_BUFFERED_2_DIRECT = 1;
     private static final int PROCESS_DIRECT_2_BUFFERED = 2;
     private static final int PROCESS_DIRECT_2_DIRECT = 3;
+    private static final int PROCESS_CUSTOM = 4; // subclass overrides step()
+
+    // result of step()
+    static final int STEP_OK = 0;
+    static final int STEP_RETRY_READER = 1;
+    static final int STEP_RETRY_WRITER = 2;
+    static final int STEP_FINISHED = 3;
+
+    // events of OnEventListener
+    public static final int EVENT_STARTED = 0;
+    public static final int EVENT_FIRST_SAMPLE = 1;
+    public static final int EVENT_EOS = 2;
+    public static final int EVENT_ERROR = 3;
+    public static final int EVENT_FINISHED = 4;
+
+    // stage of one sample transfer. first & second operation differ from process type.
+    private static final int STAGE_FIRST = 0;
+    private static final int STAGE_SECOND = 1;
 
     private String mName;
     private BufferedReader mBufferedReader;
@@ -30,13 +55,61 @@ public abstract class DataPath {
     private DirectWriter mDirectWriter;
     private int mProcessType;
     private DataPath.ProcessThread mProcessThread = null;
+    private boolean mStarted = false;
+    private final CountDownLatch mFinishLatch = new CountDownLatch(1);
+
+    // state for step based process
+    private final Data mReadData = new Data();
+    private final Data mWriteData = new Data();
+    private int mStage = STAGE_FIRST;
+
+    // batch mode. null if disabled
+    private DataBatch mBatch = null;
+    private MediaFormat mBatchFormat = null; // format of last config sample read into batch
+    private int mLatencyClass = DataNode.LATENCY_ENCODE;
+    private volatile OnEventListener mOnEventListener;
+    private boolean mFirstSampleWritten = false;
+    private volatile long mBatchCount = 0;
+    private volatile long mBatchSampleCount = 0;
 
     /* MODIFIED-BEGIN by Fan.Hu, 2018-01-19,BUG-5709670*/
     private RetrySleepHelper mReaderRetryHelper;
     private RetrySleepHelper mWriterRetryHelper;
     /* MODIFIED-END by Fan.Hu,BUG-5709670*/
 
-    private boolean mCanceled = false; // MODIFIED by Fan.Hu, 2018-01-20,BUG-5709670
+    private volatile boolean mCanceled = false; // MODIFIED by Fan.Hu, 2018-01-20,BUG-5709670
+
+    // null if port can not signal ready. retry helper is used instead.
+    private ReadyWaiter mReaderWaiter;
+    private ReadyWaiter mWriterWaiter;
+    private boolean mWriterPolled = false; // any writer port can not signal
+    private volatile long mWakeupCount = 0;
+    private volatile long mStartTime = 0;
+    private volatile long mEndTime = 0;
+
+    // metrics. always on.
+    private PathMetrics mMetrics;
+    private DataPort mReaderPort;
+    private DataPort mWriterPort; // null for subclass with its own writers
+    private long mReadTime = 0;
+    private long mBlockTime = 0; // retry time, 0 if not blocked
+    private boolean mBlockOnReader = false;
+
+    /**
+     * for subclass that overrides {@link #step()} to transfer to its own writers.
+     * writers should be registered by {@link #addWriterPort(DataPort)}
+     */
+    DataPath(String name, BufferedReader reader) {
+        if (reader == null) {
+            throw new IllegalArgumentException("null reader!");
+        }
+
+        mName = name;
+        mBufferedReader = reader;
+        mProcessType = PROCESS_CUSTOM;
+
+        initRetryHelper(reader, null);
+    }
 
     DataPath(String name, BufferedReader reader, BufferedWriter writer) {
         if (reader == null || writer == null) {
@@ -48,7 +121,7 @@ public abstract class DataPath {
         mBufferedWriter = writer;
         mProcessType = PROCESS_BUFFERED_2_BUFFERED;
 
-        initRetryHelper(); // MODIFIED by Fan.Hu, 2018-01-19,BUG-5709670
+        initRetryHelper(reader, writer); // MODIFIED by Fan.Hu, 2018-01-19,BUG-5709670
     }
 
     DataPath(String name, BufferedReader reader, DirectWriter writer) { // MODIFIED by Fan.Hu, 2018-01-09,BUG-5709670
@@ -61,7 +134,7 @@ public abstract class DataPath {
         mDirectWriter = writer;
         mProcessType = PROCESS_BUFFERED_2_DIRECT;
 
-        initRetryHelper(); // MODIFIED by Fan.Hu, 2018-01-19,BUG-5709670
+        initRetryHelper(reader, writer); // MODIFIED by Fan.Hu, 2018-01-19,BUG-5709670
     }
 
     DataPath(String name, DirectReader reader, BufferedWriter writer) { // MODIFIED by Fan.Hu, 2018-01-09,BUG-5709670
@@ -74,7 +147,7 @@ public abstract class DataPath {
         mBufferedWriter = writer;
         mProcessType = PROCESS_DIRECT_2_BUFFERED;
 
-        initRetryHelper(); // MODIFIED by Fan.Hu, 2018-01-19,BUG-5709670
+        initRetryHelper(reader, writer); // MODIFIED by Fan.Hu, 2018-01-19,BUG-5709670
     }
 
     DataPath(String name, DirectReader reader, DirectWriter writer) { // MODIFIED by Fan.Hu, 2018-01-09,BUG-5709670
@@ -88,13 +161,49 @@ public abstract class DataPath {
         mProcessType = PROCESS_DIRECT_2_DIRECT;
 
         /* MODIFIED-BEGIN by Fan.Hu, 2018-01-19,BUG-5709670*/
-        initRetryHelper();
+        initRetryHelper(reader, writer);
     }
 
-    private void initRetryHelper() {
+    private void initRetryHelper(DataPort reader, DataPort writer) {
+        mMetrics = new PathMetrics(mName);
+        mReaderPort = reader;
+        mWriterPort = writer;
+
         mReaderRetryHelper = new RetrySleepHelper(mName + "#Reader");
         mWriterRetryHelper = new RetrySleepHelper(mName + "#Writer");
         /* MODIFIED-END by Fan.Hu,BUG-5709670*/
+
+        // prefer readiness signal. fall back to retry helper for ports that can only be polled.
+        if (reader.canSignalReady()) {
+            mReaderWaiter = new ReadyWaiter();
+            reader.setOnReadyListener(mReaderWaiter);
+        }
+        if (writer != null) {
+            addWriterPort(writer);
+        }
+    }
+
+    /**
+     * register a writer port for readiness signal.
+     * writer side is polled if any of the registered ports can not signal.
+     * @param writer writer port
+     */
+    void addWriterPort(DataPort writer) {
+        if (writer.canSignalReady()) {
+            if (mWriterWaiter == null) {
+                mWriterWaiter = new ReadyWaiter();
+            }
+            writer.setOnReadyListener(mWriterWaiter);
+        } else {
+            mWriterPolled = true;
+        }
+    }
+
+    /**
+     * @return whether to wait writer by readiness signal, otherwise poll.
+     */
+    boolean useWriterSignal() {
+        return mWriterWaiter != null && !mWriterPolled;
     }
 
     /* MODIFIED-BEGIN by Fan.Hu, 2018-01-09,BUG-5709670*/
@@ -103,18 +212,119 @@ public abstract class DataPath {
     }
     /* MODIFIED-END by Fan.Hu,BUG-5709670*/
 
+    /**
+     * process in a dedicated thread, by a {@link ThreadPerPathScheduler} owned by this path
+     * @return true if started, false if already started or canceled
+     */
+    public boolean processAsync() {
+        return processAsync(new ThreadPerPathScheduler());
+    }
+
+    /**
+     * process by given scheduler
+     * @param scheduler scheduler to run this path
+     * @return true if started, false if already started or canceled
+     */
     /* MODIFIED-BEGIN by Fan.Hu, 2018-01-20,BUG-5709670*/
-    public synchronized boolean processAsync() {
-        if (!mCanceled && mProcessThread == null) {
+    public synchronized boolean processAsync(PathScheduler scheduler) {
+        if (!mCanceled && !mStarted) {
         /* MODIFIED-END by Fan.Hu,BUG-5709670*/
-            mProcessThread = new DataPath.ProcessThread(mName);
-            mProcessThread.start();
+            mStarted = true;
+            scheduler.schedule(this);
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * Enable batch mode. Up to maxCount ready samples are read by one reader call, and written by
+     * one writer call for direct writer. Only supported for buffered reader.<br>
+     * Should be called before started.
+     * @param maxCount max samples per batch. 1 to disable batch mode.
+     * @return this
+     */
+    public synchronized DataPath setBatchSize(int maxCount) {
+        if (mStarted) {
+            throw new IllegalStateException("Should not change batch size after started");
+        }
+        if (maxCount < 1) {
+            throw new IllegalArgumentException("invalid batch size: " + maxCount);
+        }
+        if (maxCount > 1 && mProcessType != PROCESS_BUFFERED_2_BUFFERED && mProcessType != PROCESS_BUFFERED_2_DIRECT) {
+            throw new IllegalStateException("batch mode needs buffered reader");
+        }
+
+        mBatch = maxCount > 1 ? new DataBatch(maxCount) : null;
+        return this;
+    }
+
+    /**
+     * set latency class, which decides priority and placement of the thread running this path.<br>
+     * Should be called before started.
+     * @param latencyClass {@link DataNode#LATENCY_REALTIME}, {@link DataNode#LATENCY_ENCODE} or
+     * {@link DataNode#LATENCY_BACKGROUND}
+     * @return this
+     */
+    public synchronized DataPath setLatencyClass(int latencyClass) {
+        if (mStarted) {
+            throw new IllegalStateException("Should not change latency class after started");
+        }
+        getThreadPriority(latencyClass); // check
+
+        mLatencyClass = latencyClass;
+        return this;
+    }
+
+    public synchronized int getLatencyClass() {
+        return mLatencyClass;
+    }
+
+    /**
+     * set listener of lifecycle events. Should be called before started.
+     * @param listener listener, null to remove
+     * @return this
+     */
+    public DataPath setOnEventListener(OnEventListener listener) {
+        mOnEventListener = listener;
+        return this;
+    }
+
+    private void notifyEvent(int event) {
+        OnEventListener listener = mOnEventListener;
+        if (listener != null) {
+            listener.onEvent(this, event, System.nanoTime());
+        }
+    }
+
+    /**
+     * @return thread priority of latency class, for {@link ThreadControl#setThreadPriority(int)}
+     */
+    static int getThreadPriority(int latencyClass) {
+        switch (latencyClass) {
+            case DataNode.LATENCY_REALTIME:
+                return Process.THREAD_PRIORITY_URGENT_AUDIO;
+            case DataNode.LATENCY_ENCODE:
+                return Process.THREAD_PRIORITY_DEFAULT;
+            case DataNode.LATENCY_BACKGROUND:
+                return Process.THREAD_PRIORITY_BACKGROUND;
+            default:
+                throw new IllegalArgumentException("invalid latency class: " + latencyClass);
+        }
+    }
+
+    /**
+     * @return average samples per reader call in batch mode, 0 if nothing read or not batch mode
+     */
+    public double getAverageBatchSize() {
+        long count = mBatchCount;
+        return count > 0 ? (double) mBatchSampleCount / count : 0;
+    }
+
+    synchronized boolean isStarted() {
+        return mStarted;
+    }
+
     @SuppressWarnings("unused")
     public boolean processSync() {
         if (processAsync()) {
@@ -126,40 +336,53 @@ public abstract class DataPath {
     }
 
     public void waitForFinish() {
-        if (mProcessThread != null) {
-            try {
-                mProcessThread.join();
-            } catch (InterruptedException e) {
-                Log.w(TAG, "[" + mName + "] wait failed.", e);
-
-                /* MODIFIED-BEGIN by Fan.Hu, 2018-01-19,BUG-5709670*/
-                // interrupt also cancel join. wait until thread finished.
-                while (!mProcessThread.isFinished()) { // MODIFIED by Fan.Hu, 2018-02-09,BUG-5727229
-                    Thread.yield();
-                }
-                /* MODIFIED-END by Fan.Hu,BUG-5709670*/
+        synchronized (this) {
+            if (!mStarted) {
+                return;
+            }
+        }
+
+        try {
+            mFinishLatch.await();
+        } catch (InterruptedException e) {
+            Log.w(TAG, "[" + mName + "] wait failed.", e);
+
+            /* MODIFIED-BEGIN by Fan.Hu, 2018-01-19,BUG-5709670*/
+            // interrupt also cancel join. wait until thread finished.
+            while (mFinishLatch.getCount() > 0) { // MODIFIED by Fan.Hu, 2018-02-09,BUG-5727229
+                Thread.yield();
             }
+            /* MODIFIED-END by Fan.Hu,BUG-5709670*/
         }
     }
 
+    /**
+     * @return true if a sample is read and not written yet, which is lost if canceled now
+     */
+    public boolean hasSampleInFlight() {
+        return mStage != STAGE_FIRST;
+    }
+
+    /**
+     * start a dedicated thread for this path. called by {@link ThreadPerPathScheduler}
+     * @param scheduler scheduler to report thread statistics
+     */
+    void startThread(ThreadPerPathScheduler scheduler) {
+        mProcessThread = new DataPath.ProcessThread(mName, scheduler);
+        mProcessThread.start();
+    }
+
     private void process() {
+        onProcessStart();
         /* MODIFIED-BEGIN by Fan.Hu, 2018-02-09,BUG-5727229*/
         try {
-            switch (mProcessType) {
-                case PROCESS_BUFFERED_2_BUFFERED:
-                    processBuffered2Buffered();
-                    break;
-                case PROCESS_BUFFERED_2_DIRECT:
-                    processBuffered2Direct();
-                    break;
-                case PROCESS_DIRECT_2_BUFFERED:
-                    processDirect2Buffered();
-                    break;
-                case PROCESS_DIRECT_2_DIRECT:
-                    processDirect2Direct();
-                    break;
-                default:
-                    Log.e(TAG, "[" + mName + "] invalid process type: " + mProcessType);
+            int result;
+            while (!isThreadInterrupted() && (result = step()) != STEP_FINISHED) {
+                if (result == STEP_RETRY_READER) {
+                    waitReader();
+                } else if (result == STEP_RETRY_WRITER) {
+                    waitWriter();
+                }
             }
         } catch (Exception e) {
             /* FIXME The issue should be fixed by the modification in method waitForFinish().
@@ -169,6 +392,164 @@ public abstract class DataPath {
             Log.e(TAG, "process()# exception detected.", e);
             /* MODIFIED-END by Fan.Hu,BUG-5727229*/
         }
+        onProcessFinish();
+    }
+
+    /**
+     * should be called once before first {@link #step()}
+     */
+    void onProcessStart() {
+        mStartTime = System.nanoTime();
+        mFirstSampleWritten = false;
+        if (mProcessType == PROCESS_DIRECT_2_DIRECT) {
+            createBuff(mReadData, mDirectReader.getMaxSampleSize());
+        }
+        notifyEvent(EVENT_STARTED);
+    }
+
+    /**
+     * should be called once after {@link #step()} returns {@link #STEP_FINISHED}
+     */
+    void onProcessFinish() {
+        mEndTime = System.nanoTime();
+        if (mProcessType == PROCESS_DIRECT_2_DIRECT) {
+            releaseBuff(mReadData);
+        }
+
+        Log.i(TAG, "[" + mName + "] process finished. wakeups/sec: " + getWakeupsPerSecond()
+                + ", reader: " + (mReaderWaiter != null ? "signal" : "poll")
+                + ", writer: " + (useWriterSignal() ? "signal" : "poll")
+                + (mBatch != null ? ", average batch size: " + getAverageBatchSize() : ""));
+
+        notifyEvent(EVENT_FINISHED);
+        mFinishLatch.countDown();
+    }
+
+    /**
+     * try to transfer one sample without blocking.<br>
+     * A retried operation is continued by next call.
+     * @return {@link #STEP_OK}, {@link #STEP_RETRY_READER}, {@link #STEP_RETRY_WRITER} or {@link #STEP_FINISHED}
+     */
+    int step() {
+        if (mCanceled) {
+            return STEP_FINISHED;
+        }
+
+        // count time since last retry as blocked
+        if (mBlockTime != 0) {
+            long blocked = System.nanoTime() - mBlockTime;
+            if (mBlockOnReader) {
+                mMetrics.onReadBlocked(blocked);
+                mReaderPort.getMetrics().onBlocked(blocked);
+            } else {
+                mMetrics.onWriteBlocked(blocked);
+                if (mWriterPort != null) {
+                    mWriterPort.getMetrics().onBlocked(blocked);
+                }
+            }
+            mBlockTime = 0;
+        }
+
+        switch (mProcessType) {
+            case PROCESS_BUFFERED_2_BUFFERED:
+                return mBatch != null ? stepBatchBuffered2Buffered() : stepBuffered2Buffered();
+            case PROCESS_BUFFERED_2_DIRECT:
+                return mBatch != null ? stepBatchBuffered2Direct() : stepBuffered2Direct();
+            case PROCESS_DIRECT_2_BUFFERED:
+                return stepDirect2Buffered();
+            case PROCESS_DIRECT_2_DIRECT:
+                return stepDirect2Direct();
+            case PROCESS_CUSTOM:
+                return stepCustom();
+            default:
+                Log.e(TAG, "[" + mName + "] invalid process type: " + mProcessType);
+                return STEP_FINISHED;
+        }
+    }
+
+    /**
+     * step for {@link #PROCESS_CUSTOM}. should be overridden by subclass with its own writers.
+     * @return same as {@link #step()}
+     */
+    int stepCustom() {
+        Log.e(TAG, "[" + mName + "] stepCustom() not implemented");
+        return STEP_FINISHED;
+    }
+
+    /**
+     * prepare to continue after {@link #step()} returns retry, for scheduler that does not block.
+     * @param stepResult {@link #STEP_RETRY_READER} or {@link #STEP_RETRY_WRITER}
+     * @param wake task to run when port signals ready
+     * @return -1 if parked and wake will be run on signal, otherwise delay in ms before next step
+     */
+    long prepareRetry(int stepResult, Runnable wake) {
+        mWakeupCount ++;
+
+        boolean isReader = stepResult == STEP_RETRY_READER;
+        ReadyWaiter waiter = isReader ? mReaderWaiter : (useWriterSignal() ? mWriterWaiter : null);
+        if (waiter != null) {
+            return waiter.park(wake) ? -1 : 0;
+        } else {
+            return (isReader ? mReaderRetryHelper : mWriterRetryHelper).nextSleepTime();
+        }
+    }
+
+    /**
+     * stop parking after {@link #prepareRetry(int, Runnable)} returned -1, on guard timeout.
+     * @param wake task given to {@link #prepareRetry(int, Runnable)}
+     * @return true if unparked and caller should run wake. false if wake is run (or to be run) on signal.
+     */
+    boolean unpark(Runnable wake) {
+        return (mReaderWaiter != null && mReaderWaiter.unpark(wake))
+                || (mWriterWaiter != null && mWriterWaiter.unpark(wake));
+    }
+
+    /**
+     * number of times the path thread woken up after a {@link DataNode#RESULT_RETRY},
+     * either by readiness signal or by retry sleep.
+     * @return wakeup count
+     */
+    public long getWakeupCount() {
+        return mWakeupCount;
+    }
+
+    /**
+     * @return live counters of this path. use {@link PathMetrics#snapshot()} for a stable copy.
+     */
+    public PathMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * wakeup rate since process started
+     * @return wakeups per second, 0 if not started
+     */
+    public double getWakeupsPerSecond() {
+        long start = mStartTime;
+        if (start == 0) {
+            return 0;
+        }
+
+        long end = mEndTime != 0 ? mEndTime : System.nanoTime();
+        return end > start ? mWakeupCount * 1000000000.0 / (end - start) : 0;
+    }
+
+    private void waitReader() {
+        if (mReaderWaiter != null) {
+            mReaderWaiter.await();
+        } else {
+            mReaderRetryHelper.sleep();
+        }
+        mWakeupCount ++;
+    }
+
+    private void waitWriter() {
+        if (useWriterSignal()) {
+            mWriterWaiter.await();
+        } else {
+            mWriterRetryHelper.sleep();
+        }
+        mWakeupCount ++;
     }
 
     /* MODIFIED-BEGIN by Fan.Hu, 2018-01-20,BUG-5709670*/
@@ -179,6 +560,14 @@ public abstract class DataPath {
         if (mProcessThread != null) {
             mProcessThread.interrupt();
         }
+
+        // wake up path parked by scheduler
+        if (mReaderWaiter != null) {
+            mReaderWaiter.onReady(null);
+        }
+        if (mWriterWaiter != null) {
+            mWriterWaiter.onReady(null);
+        }
     }
 
     @SuppressWarnings("unused")
@@ -192,247 +581,346 @@ public abstract class DataPath {
         return Thread.currentThread().isInterrupted();
     }
 
-    private static void interruptThread() {
-        Thread.currentThread().interrupt();
-    }
+    private int stepBuffered2Buffered() {
+        int result;
+        if (mStage == STAGE_FIRST) {
+            // read begin
+            if ((result = mBufferedReader.readBegin(mReadData)) == DataNode.RESULT_RETRY) {
+                return retryReader("read");
+            }
+            readerProceeded();
+            if (result != DataNode.RESULT_OK) { // check for error
+                return error("read", result); // error detected.
+            }
+            mStage = STAGE_SECOND;
+        }
+
+        // write begin
+        if ((result = mBufferedWriter.writeBegin(mWriteData)) == DataNode.RESULT_RETRY) {
+            return retryWriter("write begin");
+        }
+        writerProceeded();
+        mStage = STAGE_FIRST;
+        if (result != DataNode.RESULT_OK) { // check for error
+            return error("write begin", result); // error detected.
+        }
+
+        // copy data
+        copyData(mReadData, mWriteData);
+
+        // read end
+        mBufferedReader.readEnd(mReadData);
 
-    private void processBuffered2Buffered() {
-        int resultRead = DataNode.RESULT_ERROR;
-        int resultWrite = DataNode.RESULT_ERROR;
-        Data writeData = new Data();
-        Data readData = new Data();
+        // write end
+        mBufferedWriter.writeEnd(mWriteData);
+        sampleWritten(mWriteData);
 
-        while (!isThreadInterrupted()) {
+        // check eof
+        return checkEof(mWriteData);
+    }
+
+    private int stepBuffered2Direct() {
+        int result;
+        if (mStage == STAGE_FIRST) {
             // read begin
-            /* MODIFIED-BEGIN by Fan.Hu, 2018-01-19,BUG-5709670*/
-            mReaderRetryHelper.begin();
-            while (!isThreadInterrupted() && (resultRead = mBufferedReader.readBegin(readData)) == DataNode.RESULT_RETRY) {
-                // loop in case retry
-                /* MODIFIED-BEGIN by Fan.Hu, 2018-01-09,BUG-5709670*/
-                if (DEBUG_RETRY) {
-                    Log.w(TAG, "[" + mName + "] processBuffered2Buffered()# read RESULT_RETRY");
-                }
-                mReaderRetryHelper.sleep();
+            if ((result = mBufferedReader.readBegin(mReadData)) == DataNode.RESULT_RETRY) {
+                return retryReader("read");
             }
-            mReaderRetryHelper.end();
-            if (resultRead != DataNode.RESULT_OK) { // check for error
-                Log.w(TAG, "[" + mName + "] processBuffered2Buffered()# read error. ignore this sample. >>" + resultRead);
-                return; // error detected.
+            readerProceeded();
+            if (result != DataNode.RESULT_OK) { // check for error
+                return error("read", result); // error detected.
             }
+            mStage = STAGE_SECOND;
+        }
+
+        // write
+        if ((result = mDirectWriter.write(mReadData)) == DataNode.RESULT_RETRY) {
+            return retryWriter("write");
+        }
+        writerProceeded();
+        mStage = STAGE_FIRST;
+        if (result != DataNode.RESULT_OK) { // check for error
+            return error("write", result); // error detected.
+        }
+
+        // read end
+        mBufferedReader.readEnd(mReadData);
+        sampleWritten(mReadData);
+
+        // check eof
+        return checkEof(mReadData);
+    }
 
+    private int stepDirect2Buffered() {
+        int result;
+        if (mStage == STAGE_FIRST) {
             // write begin
-            mWriterRetryHelper.begin();
-            while (!isThreadInterrupted() && (resultWrite = mBufferedWriter.writeBegin(writeData)) == DataNode.RESULT_RETRY) {
-                // loop in case retry
-                if (DEBUG_RETRY) {
-                    Log.w(TAG, "[" + mName + "] processBuffered2Buffered()# write begin RESULT_RETRY");
-                }
-                mWriterRetryHelper.sleep();
+            if ((result = mBufferedWriter.writeBegin(mWriteData)) == DataNode.RESULT_RETRY) {
+                return retryWriter("write begin");
             }
-            mWriterRetryHelper.end();
-            if (resultWrite != DataNode.RESULT_OK) { // check for error
-                Log.w(TAG, "[" + mName + "] processBuffered2Buffered()# write begin error. ignore this sample. >>" + resultWrite);
-                /* MODIFIED-END by Fan.Hu,BUG-5709670*/
-                return; // error detected.
+            writerProceeded();
+            if (result != DataNode.RESULT_OK) { // check for error
+                return error("write begin", result); // error detected.
             }
+            mStage = STAGE_SECOND;
+        }
 
-            // copy data
-            copyData(readData, writeData);
-            /* MODIFIED-END by Fan.Hu,BUG-5709670*/
+        // read
+        if ((result = mDirectReader.read(mWriteData)) == DataNode.RESULT_RETRY) {
+            return retryReader("read");
+        }
+        readerProceeded();
+        mStage = STAGE_FIRST;
+        if (result != DataNode.RESULT_OK) { // check for error
+            return error("read", result); // error detected.
+        }
 
-            // read end
-            mBufferedReader.readEnd(readData);
+        // write end
+        mBufferedWriter.writeEnd(mWriteData);
+        sampleWritten(mWriteData);
 
-            // write end
-            mBufferedWriter.writeEnd(writeData);
+        // check eof
+        return checkEof(mWriteData);
+    }
 
-            // check eof
-            if (isEof(writeData)) {
-                Log.i(TAG, "[" + mName + "] processBuffered2Buffered()# eof");
-                interruptThread();
+    private int stepDirect2Direct() {
+        int result;
+        if (mStage == STAGE_FIRST) {
+            // read
+            if ((result = mDirectReader.read(mReadData)) == DataNode.RESULT_RETRY) {
+                return retryReader("read");
+            }
+            readerProceeded();
+            if (result != DataNode.RESULT_OK) { // check for error
+                return error("read", result); // error detected.
             }
+            mStage = STAGE_SECOND;
         }
-    }
 
-    private void processBuffered2Direct() {
-        int resultRead = DataNode.RESULT_ERROR;
-        int resultWrite = DataNode.RESULT_ERROR;
-        Data readData = new Data();
+        // write
+        if ((result = mDirectWriter.write(mReadData)) == DataNode.RESULT_RETRY) {
+            return retryWriter("write");
+        }
+        writerProceeded();
+        mStage = STAGE_FIRST;
+        if (result != DataNode.RESULT_OK) { // check for error
+            return error("write", result); // error detected.
+        }
+        sampleWritten(mReadData);
 
-        while (!isThreadInterrupted()) {
-            // read begin
-            /* MODIFIED-BEGIN by Fan.Hu, 2018-01-19,BUG-5709670*/
-            mReaderRetryHelper.begin();
-            while (!isThreadInterrupted() && (resultRead = mBufferedReader.readBegin(readData)) == DataNode.RESULT_RETRY) {
-                // loop in case retry
-                /* MODIFIED-BEGIN by Fan.Hu, 2018-01-09,BUG-5709670*/
-                if (DEBUG_RETRY) {
-                    Log.w(TAG, "[" + mName + "] processBuffered2Direct()# read RESULT_RETRY");
-                }
-                mReaderRetryHelper.sleep();
-            }
-            mReaderRetryHelper.end();
-            if (resultRead != DataNode.RESULT_OK) { // check for error
-                Log.w(TAG, "[" + mName + "] processBuffered2Direct()# read error. ignore this sample. >>" + resultRead);
-                return; // error detected.
-            }
+        // check eof
+        return checkEof(mReadData);
+    }
 
-            // write
-            mWriterRetryHelper.begin();
-            while (!isThreadInterrupted() && (resultWrite = mDirectWriter.write(readData)) == DataNode.RESULT_RETRY) {
-                // loop in case retry
-                if (DEBUG_RETRY) {
-                    Log.w(TAG, "[" + mName + "] processBuffered2Direct()# write begin RESULT_RETRY");
-                }
-                mWriterRetryHelper.sleep();
-            }
-            mWriterRetryHelper.end();
-            /* MODIFIED-END by Fan.Hu,BUG-5709670*/
-            if (resultWrite != DataNode.RESULT_OK) { // check for error
-                Log.w(TAG, "[" + mName + "] processBuffered2Direct()# write begin error. ignore this sample. >>" + resultWrite);
-                /* MODIFIED-END by Fan.Hu,BUG-5709670*/
-                return; // error detected.
-            }
+    /**
+     * reader operation succeeded. for subclass overriding {@link #step()}
+     */
+    void readerProceeded() {
+        mReaderRetryHelper.next();
+        mReadTime = System.nanoTime();
+    }
 
-            // read end
-            mBufferedReader.readEnd(readData);
+    /**
+     * writer operation succeeded. for subclass overriding {@link #step()}
+     */
+    void writerProceeded() {
+        mWriterRetryHelper.next();
+    }
 
-            // check eof
-            if (isEof(readData)) {
-                Log.i(TAG, "[" + mName + "] processBuffered2Direct()# eof");
-                interruptThread();
-            }
+    /**
+     * sample finished by all writers. update metrics.
+     * @param data sample written
+     */
+    void sampleWritten(Data data) {
+        int size = data.getSize();
+        mMetrics.onSample(size, System.nanoTime() - mReadTime);
+        mReaderPort.getMetrics().onTransfer(size);
+        if (mWriterPort != null) {
+            mWriterPort.getMetrics().onTransfer(size);
+        }
+
+        // codec config is not a sample of stream
+        if (!mFirstSampleWritten && size > 0 && (data.getFlags() & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+            mFirstSampleWritten = true;
+            notifyEvent(EVENT_FIRST_SAMPLE);
         }
     }
 
-    private void processDirect2Buffered() {
-        int resultRead = DataNode.RESULT_ERROR;
-        int resultWrite = DataNode.RESULT_ERROR;
-        Data writeData = new Data();
+    private int stepBatchBuffered2Buffered() {
+        int result;
+        if (mStage == STAGE_FIRST) {
+            // read begin
+            if ((result = readBatch()) != DataNode.RESULT_OK) {
+                return result == DataNode.RESULT_RETRY ? retryReader("read") : error("read", result);
+            }
+            mStage = STAGE_SECOND;
+        }
 
-        while (!isThreadInterrupted()) {
+        // write one by one. buffer is provided by writer for each sample
+        while (mBatch.hasRemaining()) {
             // write begin
-            /* MODIFIED-BEGIN by Fan.Hu, 2018-01-19,BUG-5709670*/
-            mWriterRetryHelper.begin();
-            while (!isThreadInterrupted() && (resultWrite = mBufferedWriter.writeBegin(writeData)) == DataNode.RESULT_RETRY) {
-                // loop in case retry
-                /* MODIFIED-BEGIN by Fan.Hu, 2018-01-09,BUG-5709670*/
-                if (DEBUG_RETRY) {
-                    Log.w(TAG, "[" + mName + "] processDirect2Buffered()# write begin RESULT_RETRY");
-                }
-                mWriterRetryHelper.sleep();
+            if ((result = mBufferedWriter.writeBegin(mWriteData)) == DataNode.RESULT_RETRY) {
+                return retryWriter("write begin");
             }
-            mWriterRetryHelper.end();
-            if (resultWrite != DataNode.RESULT_OK) { // check for error
-                Log.w(TAG, "[" + mName + "] processDirect2Buffered()# write begin error. ignore this sample. >>" + resultWrite);
-                return; // error detected.
+            writerProceeded();
+            if (result != DataNode.RESULT_OK) { // check for error
+                mStage = STAGE_FIRST;
+                return error("write begin", result); // error detected.
             }
 
-            // read
-            mReaderRetryHelper.begin();
-            while (!isThreadInterrupted() && (resultRead = mDirectReader.read(writeData)) == DataNode.RESULT_RETRY) {
-                // loop in case retry
-                if (DEBUG_RETRY) {
-                    Log.w(TAG, "[" + mName + "] processDirect2Buffered()# read RESULT_RETRY");
-                }
-                mReaderRetryHelper.sleep();
-            }
-            mReaderRetryHelper.end();
-            /* MODIFIED-END by Fan.Hu,BUG-5709670*/
-            if (resultRead != DataNode.RESULT_OK) {
-                Log.w(TAG, "[" + mName + "] processDirect2Buffered()# read error. ignore this sample. >>" + resultRead);
-                /* MODIFIED-END by Fan.Hu,BUG-5709670*/
-                return; // error detected.
-            }
+            // copy data
+            copyData(mBatch.current(), mWriteData);
 
             // write end
-            mBufferedWriter.writeEnd(writeData);
+            mBufferedWriter.writeEnd(mWriteData);
+            sampleWritten(mWriteData);
+            mBatch.advance();
+        }
+        mStage = STAGE_FIRST;
+
+        // read end
+        mBufferedReader.readEnd(mBatch);
 
-            // check eof
-            if (isEof(writeData)) {
-                Log.i(TAG, "[" + mName + "] processDirect2Buffered()# eof");
-                interruptThread();
+        // check eof
+        return checkEof(mWriteData);
+    }
+
+    private int stepBatchBuffered2Direct() {
+        int result;
+        if (mStage == STAGE_FIRST) {
+            // read begin
+            if ((result = readBatch()) != DataNode.RESULT_OK) {
+                return result == DataNode.RESULT_RETRY ? retryReader("read") : error("read", result);
             }
+            mStage = STAGE_SECOND;
         }
+
+        // write
+        if ((result = mDirectWriter.write(mBatch)) == DataNode.RESULT_RETRY) {
+            return retryWriter("write");
+        }
+        writerProceeded();
+        mStage = STAGE_FIRST;
+        if (result != DataNode.RESULT_OK) { // check for error
+            return error("write", result); // error detected.
+        }
+
+        // read end
+        mBufferedReader.readEnd(mBatch);
+        for (int i = 0; i < mBatch.limit(); i++) {
+            sampleWritten(mBatch.get(i));
+        }
+
+        // check eof
+        return checkEof(mBatch.get(mBatch.limit() - 1));
     }
 
-    private void processDirect2Direct() {
-        int resultRead = DataNode.RESULT_ERROR;
-        int resultWrite = DataNode.RESULT_ERROR;
-        Data readData = new Data();
-        createBuff(readData);
+    /**
+     * read batch. samples after eof are not written, but will be released.
+     * @return result of reader
+     */
+    private int readBatch() {
+        int result = mBufferedReader.readBegin(mBatch);
+        if (result == DataNode.RESULT_RETRY) {
+            return result;
+        }
+        readerProceeded();
+        if (result != DataNode.RESULT_OK) {
+            return result;
+        }
 
-        while (!isThreadInterrupted()) {
-            // read
-            /* MODIFIED-BEGIN by Fan.Hu, 2018-01-19,BUG-5709670*/
-            mReaderRetryHelper.begin();
-            while (!isThreadInterrupted() && (resultRead = mDirectReader.read(readData)) == DataNode.RESULT_RETRY) {
-                // loop in case retry
-                /* MODIFIED-BEGIN by Fan.Hu, 2018-01-09,BUG-5709670*/
-                if (DEBUG_RETRY) {
-                    Log.w(TAG, "[" + mName + "] processDirect2Direct()# read RESULT_RETRY");
-                }
-                mReaderRetryHelper.sleep();
-            }
-            mReaderRetryHelper.end();
-            if (resultRead != DataNode.RESULT_OK) { // check for error
-                Log.w(TAG, "[" + mName + "] processDirect2Direct()# read error. ignore this sample. >>" + resultRead);
-                return; // error detected.
+        for (int i = 0; i < mBatch.size(); i++) {
+            Data data = mBatch.get(i);
+            // readers set format on config sample only. samples of one Data used to keep it, so
+            // give every sample of batch the format of last config, as writers (e.g. muxer) need it.
+            if ((data.getFlags() & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                mBatchFormat = data.getConfigFormat();
+            } else if (mBatchFormat != null) {
+                data.setConfigFormat(mBatchFormat);
             }
 
-            // write
-            mWriterRetryHelper.begin();
-            while (!isThreadInterrupted() && (resultWrite = mDirectWriter.write(readData)) == DataNode.RESULT_RETRY) {
-                // loop in case retry
-                if (DEBUG_RETRY) {
-                    Log.w(TAG, "[" + mName + "] processDirect2Direct()# write begin RESULT_RETRY");
-                }
-                mWriterRetryHelper.sleep();
-            }
-            mWriterRetryHelper.end();
-            /* MODIFIED-END by Fan.Hu,BUG-5709670*/
-            if (resultWrite != DataNode.RESULT_OK) { // check for error
-                Log.w(TAG, "[" + mName + "] processDirect2Direct()# write begin error. ignore this sample. >>" + resultWrite);
-                /* MODIFIED-END by Fan.Hu,BUG-5709670*/
-                return; // error detected.
+            if (isEof(data)) {
+                mBatch.setLimit(i + 1);
+                break;
             }
+        }
+        mBatchCount ++;
+        mBatchSampleCount += mBatch.size();
+        return result;
+    }
 
-            // check eof
-            if (isEof(readData)) {
-                Log.i(TAG, "[" + mName + "] processDirect2Direct()# eof");
-                interruptThread();
-            }
+    int retryReader(String operation) {
+        if (DEBUG_RETRY) {
+            Log.w(TAG, "[" + mName + "] step()# " + operation + " RESULT_RETRY");
+        }
+        mMetrics.onReadRetry();
+        mReaderPort.getMetrics().onRetry();
+        mBlockTime = System.nanoTime();
+        mBlockOnReader = true;
+        return STEP_RETRY_READER;
+    }
+
+    int retryWriter(String operation) {
+        if (DEBUG_RETRY) {
+            Log.w(TAG, "[" + mName + "] step()# " + operation + " RESULT_RETRY");
+        }
+        mMetrics.onWriteRetry();
+        if (mWriterPort != null) {
+            mWriterPort.getMetrics().onRetry();
+        }
+        mBlockTime = System.nanoTime();
+        mBlockOnReader = false;
+        return STEP_RETRY_WRITER;
+    }
+
+    int error(String operation, int result) {
+        Log.w(TAG, "[" + mName + "] step()# " + operation + " error. ignore this sample. >>" + result);
+        notifyEvent(EVENT_ERROR);
+        return STEP_FINISHED;
+    }
+
+    int checkEof(Data data) {
+        if (isEof(data)) {
+            Log.i(TAG, "[" + mName + "] step()# eof");
+            notifyEvent(EVENT_EOS);
+            return STEP_FINISHED;
         }
+        return STEP_OK;
     }
 
     protected abstract void copyData(Data fromData, Data toData);
     protected abstract boolean isEof(Data data);
-    protected abstract void createBuff(Data data);
+    protected abstract void createBuff(Data data, int size);
+    protected abstract void releaseBuff(Data data);
+
+    /**
+     * Listener of path lifecycle. Called in thread running the path, so should return quickly.
+     */
+    public interface OnEventListener {
+        /**
+         * @param event {@link #EVENT_STARTED}, {@link #EVENT_FIRST_SAMPLE}, {@link #EVENT_EOS},
+         *              {@link #EVENT_ERROR} or {@link #EVENT_FINISHED}
+         * @param timeNs {@link System#nanoTime()} of event
+         */
+        void onEvent(DataPath path, int event, long timeNs);
+    }
 
     private class ProcessThread extends Thread {
-        private boolean mFinished = false; // MODIFIED by Fan.Hu, 2018-02-09,BUG-5727229
+        private ThreadPerPathScheduler mScheduler;
 
-        ProcessThread(String name) {
+        ProcessThread(String name, ThreadPerPathScheduler scheduler) {
             super(name);
+            mScheduler = scheduler;
         }
 
         @Override
         public void run() {
+            int tid = ThreadControl.getDefault().myTid();
+            mScheduler.onThreadStart(tid);
+            ThreadControl.getDefault().setThreadPriority(getThreadPriority(mLatencyClass));
             process();
 
-            /* MODIFIED-BEGIN by Fan.Hu, 2018-02-09,BUG-5727229*/
-            mFinished = true;
-        }
-
-        @Override
-        public synchronized void start() {
-            mFinished = false;
-            super.start();
-        }
-
-        public boolean isFinished() {
-            return mFinished;
-            /* MODIFIED-END by Fan.Hu,BUG-5727229*/
+            mScheduler.onThreadExit(tid, ThreadStats.getContextSwitches(tid));
         }
     }
 
@@ -498,6 +986,14 @@ public abstract class DataPath {
             mRetryCount = 0;
         }
 
+        /**
+         * operation finished, begin next one
+         */
+        public void next() {
+            end();
+            begin();
+        }
+
         public void end() {
             if (mRetryCount > mMaxThreshold) {
                 mSleepTime += mSleepStep;
@@ -512,19 +1008,28 @@ public abstract class DataPath {
             }
         }
 
-        public void sleep() {
+        /**
+         * count a retry and get time to sleep before it
+         * @return sleep time in ms, 0 means yield
+         */
+        public long nextSleepTime() {
             mRetryCount ++;
 
             if (DEBUG) {
                 Log.d(TAG, "[" + mName + "] sleep()# mRetryCount: " + mRetryCount + ", mSleepTime: " + mSleepTime);
             }
+            return mSleepTime > 0 ? mSleepTime : 0;
+        }
+
+        public void sleep() {
+            long sleepTime = nextSleepTime();
 
             // do sleep
-            if (mSleepTime <= 0) {
+            if (sleepTime <= 0) {
                 Thread.yield();
             } else {
                 try {
-                    Thread.sleep(mSleepTime);
+                    Thread.sleep(sleepTime);
                 } catch (InterruptedException e) {
                     // InterruptedException will consume interrupt status
                     Thread.currentThread().interrupt();
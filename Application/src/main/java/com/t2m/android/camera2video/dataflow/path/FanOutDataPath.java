@@ -0,0 +1,236 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.path;
+
+import android.util.Log;
+
+import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.node.BufferedReader;
+import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
+import com.t2m.android.camera2video.dataflow.node.DirectWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data path from one reader to several writers.<br>
+ * Each sample is read once. Direct writers get the same sample by reference (so they should not
+ * modify it), buffered writers get a copy in their own buffer. The sample is released after the
+ * last writer finished.<br>
+ * A writer with {@link #POLICY_DROP} skips a sample if it is not accepted within max wait time,
+ * so a slow writer does not stall others. Config and eos samples are never dropped.
+ * To absorb jitter of a slow writer without dropping, put a QueueNode in front of it.
+ */
+public abstract class FanOutDataPath extends DataPath {
+    private static final String TAG = FanOutDataPath.class.getSimpleName();
+
+    /**
+     * wait until writer accepts the sample
+     */
+    public static final int POLICY_BLOCK = 0;
+    /**
+     * drop the sample for the writer if not accepted within max wait time
+     */
+    public static final int POLICY_DROP = 1;
+
+    private final BufferedReader mReader;
+    private final List<Branch> mBranches = new ArrayList<>();
+    private final Data mReadData = new Data();
+    private boolean mReading = false;
+    private boolean mEssential = false;
+    private long mReadTime = 0;
+    private boolean mDropWaiting = false;
+
+    FanOutDataPath(String name, BufferedReader reader) {
+        super(name, reader);
+        mReader = reader;
+    }
+
+    /**
+     * add writer with {@link #POLICY_BLOCK}
+     * @param writer writer
+     * @return this
+     */
+    public FanOutDataPath addWriter(DirectWriter writer) {
+        return addWriter(writer, POLICY_BLOCK, 0);
+    }
+
+    /**
+     * add writer with {@link #POLICY_BLOCK}
+     * @param writer writer
+     * @return this
+     */
+    public FanOutDataPath addWriter(BufferedWriter writer) {
+        return addWriter(writer, POLICY_BLOCK, 0);
+    }
+
+    /**
+     * @param writer writer
+     * @param policy {@link #POLICY_BLOCK} or {@link #POLICY_DROP}
+     * @param maxWaitMs max wait time for {@link #POLICY_DROP}, 0 to drop immediately if writer not ready
+     * @return this
+     */
+    public FanOutDataPath addWriter(DirectWriter writer, int policy, long maxWaitMs) {
+        return addBranch(new Branch(null, writer, policy, maxWaitMs));
+    }
+
+    /**
+     * @param writer writer
+     * @param policy {@link #POLICY_BLOCK} or {@link #POLICY_DROP}
+     * @param maxWaitMs max wait time for {@link #POLICY_DROP}, 0 to drop immediately if writer not ready
+     * @return this
+     */
+    public FanOutDataPath addWriter(BufferedWriter writer, int policy, long maxWaitMs) {
+        return addBranch(new Branch(writer, null, policy, maxWaitMs));
+    }
+
+    private FanOutDataPath addBranch(Branch branch) {
+        if (isStarted()) {
+            throw new IllegalStateException("Should not add writer after started");
+        }
+        if (branch.mPolicy != POLICY_BLOCK && branch.mPolicy != POLICY_DROP) {
+            throw new IllegalArgumentException("invalid policy: " + branch.mPolicy);
+        }
+
+        mBranches.add(branch);
+        addWriterPort(branch.mBufferedWriter != null ? branch.mBufferedWriter : branch.mDirectWriter);
+        return this;
+    }
+
+    public int getWriterCount() {
+        return mBranches.size();
+    }
+
+    /**
+     * @param index writer index in adding order
+     * @return samples dropped for the writer
+     */
+    public long getDroppedCount(int index) {
+        return mBranches.get(index).mDropped;
+    }
+
+    @Override
+    int stepCustom() {
+        int result;
+        if (!mReading) {
+            // read begin
+            if ((result = mReader.readBegin(mReadData)) == DataNode.RESULT_RETRY) {
+                return retryReader("read");
+            }
+            readerProceeded();
+            if (result != DataNode.RESULT_OK) { // check for error
+                return error("read", result); // error detected.
+            }
+
+            mReading = true;
+            mEssential = isConfig(mReadData) || isEof(mReadData);
+            mReadTime = System.nanoTime();
+            for (int i = 0; i < mBranches.size(); i++) {
+                Branch branch = mBranches.get(i);
+                branch.mDone = branch.mDisabled;
+            }
+        }
+
+        // write to writers not done yet
+        boolean pending = false;
+        boolean enabled = false;
+        mDropWaiting = false;
+        for (int i = 0; i < mBranches.size(); i++) { // indexed loop, no iterator per sample
+            Branch branch = mBranches.get(i);
+            enabled |= !branch.mDisabled;
+            if (branch.mDone) {
+                continue;
+            }
+
+            result = branch.write(mReadData);
+            if (result == DataNode.RESULT_OK) {
+                branch.mDone = true;
+            } else if (result == DataNode.RESULT_RETRY) {
+                if (branch.mPolicy == POLICY_DROP && !mEssential) {
+                    if (System.nanoTime() - mReadTime >= branch.mMaxWaitNs) {
+                        branch.mDone = true;
+                        branch.mDropped ++;
+                        continue;
+                    }
+                    mDropWaiting = true;
+                }
+                pending = true;
+            } else {
+                Log.w(TAG, "[" + getName() + "] step()# writer " + i + " error. writer disabled. >>" + result);
+                branch.mDisabled = true;
+                branch.mDone = true;
+            }
+        }
+
+        if (pending) {
+            return retryWriter("write");
+        }
+        writerProceeded();
+
+        // read end
+        mReader.readEnd(mReadData);
+        mReading = false;
+
+        if (!enabled) {
+            return error("write", DataNode.RESULT_ERROR); // all writers failed
+        }
+        sampleWritten(mReadData);
+
+        // check eof
+        return checkEof(mReadData);
+    }
+
+    @Override
+    boolean useWriterSignal() {
+        // poll in case dropping writer should be checked for timeout
+        return !mDropWaiting && super.useWriterSignal();
+    }
+
+    protected abstract boolean isConfig(Data data);
+
+    private class Branch {
+        private final BufferedWriter mBufferedWriter;
+        private final DirectWriter mDirectWriter;
+        private final int mPolicy;
+        private final long mMaxWaitNs;
+        private final Data mWriteData = new Data();
+        private boolean mDone = false;
+        private boolean mDisabled = false;
+        private long mDropped = 0;
+
+        Branch(BufferedWriter bufferedWriter, DirectWriter directWriter, int policy, long maxWaitMs) {
+            if (bufferedWriter == null && directWriter == null) {
+                throw new IllegalArgumentException("null writer!");
+            }
+
+            mBufferedWriter = bufferedWriter;
+            mDirectWriter = directWriter;
+            mPolicy = policy;
+            mMaxWaitNs = maxWaitMs * 1000000L;
+        }
+
+        int write(Data readData) {
+            int result;
+            DataPort port;
+            if (mDirectWriter != null) {
+                port = mDirectWriter;
+                result = mDirectWriter.write(readData);
+            } else {
+                port = mBufferedWriter;
+                result = mBufferedWriter.writeBegin(mWriteData);
+                if (result == DataNode.RESULT_OK) {
+                    copyData(readData, mWriteData);
+                    result = mBufferedWriter.writeEnd(mWriteData);
+                }
+            }
+
+            if (result == DataNode.RESULT_OK) {
+                port.getMetrics().onTransfer(readData.getSize());
+            } else if (result == DataNode.RESULT_RETRY) {
+                port.getMetrics().onRetry();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.path;
+
+/**
+ * LatencyHistogram<br>
+ * Histogram with power of 2 buckets in microseconds. Bucket i counts latency in [2^(i-1), 2^i) us,
+ * bucket 0 counts latency less than 1us, and the last bucket counts everything above.<br>
+ * Only written by path thread. Readers from other threads may see slightly stale buckets.
+ */
+public class LatencyHistogram {
+    public static final int BUCKET_COUNT = 32;
+
+    private final long[] mBuckets = new long[BUCKET_COUNT];
+    private volatile long mCount = 0;
+    private volatile long mTotalNs = 0;
+    private volatile long mMaxNs = 0;
+
+    LatencyHistogram() {
+    }
+
+    private LatencyHistogram(LatencyHistogram histogram) {
+        System.arraycopy(histogram.mBuckets, 0, mBuckets, 0, BUCKET_COUNT);
+        mCount = histogram.mCount;
+        mTotalNs = histogram.mTotalNs;
+        mMaxNs = histogram.mMaxNs;
+    }
+
+    void record(long ns) {
+        if (ns < 0) {
+            ns = 0;
+        }
+
+        int bucket = 64 - Long.numberOfLeadingZeros(ns / 1000);
+        mBuckets[bucket < BUCKET_COUNT ? bucket : BUCKET_COUNT - 1] ++;
+        mTotalNs += ns;
+        if (ns > mMaxNs) {
+            mMaxNs = ns;
+        }
+        mCount ++; // volatile write last, so buckets are visible to reader of count
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getBucketCount(int bucket) {
+        return mBuckets[bucket];
+    }
+
+    /**
+     * @param bucket bucket index
+     * @return exclusive upper bound of bucket in us
+     */
+    public static long getBucketUpperBoundUs(int bucket) {
+        return 1L << bucket;
+    }
+
+    public long getMeanUs() {
+        long count = mCount;
+        return count > 0 ? mTotalNs / count / 1000 : 0;
+    }
+
+    public long getMaxUs() {
+        return mMaxNs / 1000;
+    }
+
+    /**
+     * @param percentile percentile in (0, 100]
+     * @return upper bound of bucket containing the percentile in us, 0 if empty
+     */
+    public long getPercentileUs(double percentile) {
+        long count = mCount;
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(count * percentile / 100);
+        long sum = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            sum += mBuckets[i];
+            if (sum >= target) {
+                return getBucketUpperBoundUs(i);
+            }
+        }
+        return getBucketUpperBoundUs(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * @return copy of current histogram
+     */
+    public LatencyHistogram snapshot() {
+        return new LatencyHistogram(this);
+    }
+
+    @Override
+    public String toString() {
+        return "count: " + mCount + ", mean: " + getMeanUs() + "us, p50: <" + getPercentileUs(50)
+                + "us, p99: <" + getPercentileUs(99) + "us, max: " + getMaxUs() + "us";
+    }
+}
@@ -0,0 +1,106 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.path;
+
+/**
+ * PathMetrics<br>
+ * Live counters of a {@link DataPath}. Counters are only written by the path thread and are cheap
+ * enough to be always on: a few field updates and {@link System#nanoTime()} calls per sample.
+ */
+public class PathMetrics {
+    private final String mName;
+    private volatile long mSamples = 0;
+    private volatile long mBytes = 0;
+    private volatile long mReadRetries = 0;
+    private volatile long mWriteRetries = 0;
+    private volatile long mReadBlockedNs = 0;
+    private volatile long mWriteBlockedNs = 0;
+    private final LatencyHistogram mLatency;
+
+    PathMetrics(String name) {
+        mName = name;
+        mLatency = new LatencyHistogram();
+    }
+
+    private PathMetrics(PathMetrics metrics) {
+        mName = metrics.mName;
+        mSamples = metrics.mSamples;
+        mBytes = metrics.mBytes;
+        mReadRetries = metrics.mReadRetries;
+        mWriteRetries = metrics.mWriteRetries;
+        mReadBlockedNs = metrics.mReadBlockedNs;
+        mWriteBlockedNs = metrics.mWriteBlockedNs;
+        mLatency = metrics.mLatency.snapshot();
+    }
+
+    void onSample(int bytes, long latencyNs) {
+        mSamples ++;
+        mBytes += bytes;
+        mLatency.record(latencyNs);
+    }
+
+    void onReadRetry() {
+        mReadRetries ++;
+    }
+
+    void onWriteRetry() {
+        mWriteRetries ++;
+    }
+
+    void onReadBlocked(long ns) {
+        mReadBlockedNs += ns;
+    }
+
+    void onWriteBlocked(long ns) {
+        mWriteBlockedNs += ns;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public long getSamples() {
+        return mSamples;
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public long getReadRetries() {
+        return mReadRetries;
+    }
+
+    public long getWriteRetries() {
+        return mWriteRetries;
+    }
+
+    public long getReadBlockedNs() {
+        return mReadBlockedNs;
+    }
+
+    public long getWriteBlockedNs() {
+        return mWriteBlockedNs;
+    }
+
+    /**
+     * @return histogram of time from sample read to sample written by this path
+     */
+    public LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * @return copy of current counters
+     */
+    public PathMetrics snapshot() {
+        return new PathMetrics(this);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + mName + "] samples: " + mSamples + ", bytes: " + mBytes
+                + ", retries: " + mReadRetries + "/" + mWriteRetries
+                + ", blocked: " + mReadBlockedNs / 1000000 + "ms/" + mWriteBlockedNs / 1000000 + "ms"
+                + ", latency: {" + mLatency + "}";
+    }
+}
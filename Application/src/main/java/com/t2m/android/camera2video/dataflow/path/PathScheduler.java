@@ -0,0 +1,33 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.path;
+
+/**
+ * Scheduler to run {@link DataPath}<br>
+ * A scheduler is owned by the one creating it, e.g. a task or a path started by
+ * {@link DataPath#processAsync()}. There is no process wide scheduler, so statistics of a scheduler
+ * only cover paths scheduled by it.
+ * @see ThreadPerPathScheduler
+ * @see WorkerPoolScheduler
+ */
+public interface PathScheduler {
+    /**
+     * start running path. called by {@link DataPath#processAsync(PathScheduler)}
+     * @param path path to run
+     */
+    void schedule(DataPath path);
+
+    /**
+     * @return number of threads created by this scheduler
+     */
+    int getThreadCount();
+
+    /**
+     * @return context switches of threads created by this scheduler, -1 if not available
+     */
+    long getContextSwitches();
+
+    /**
+     * release threads. paths should not be scheduled after shutdown.
+     */
+    void shutdown();
+}
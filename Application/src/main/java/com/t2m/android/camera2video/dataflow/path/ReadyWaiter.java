@@ -0,0 +1,89 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.path;
+
+import com.t2m.android.camera2video.dataflow.node.DataPort;
+
+/**
+ * Block the path thread until a {@link DataPort} signals ready.<br>
+ * A signal arriving before {@link #await()} is kept, so it will not be missed.
+ */
+class ReadyWaiter implements DataPort.OnReadyListener {
+    /**
+     * guard timeout in case a port does not signal as expected. the path only retries once on timeout.
+     */
+    static final long GUARD_TIMEOUT_MS = 100;
+
+    private boolean mReady = false;
+    private long mTimeoutCount = 0;
+    private Runnable mWakeTask;
+
+    @Override
+    public void onReady(DataPort port) {
+        Runnable wakeTask;
+        synchronized (this) {
+            wakeTask = mWakeTask;
+            mWakeTask = null;
+
+            // signal is consumed by wake task if parked
+            mReady = wakeTask == null;
+            notifyAll();
+        }
+
+        if (wakeTask != null) {
+            wakeTask.run();
+        }
+    }
+
+    /**
+     * park instead of blocking. wake task is run on the signaling thread once signaled.
+     * @param wakeTask task to run on signal
+     * @return true if parked, false if already signaled (and the signal is consumed)
+     */
+    public synchronized boolean park(Runnable wakeTask) {
+        if (mReady) {
+            mReady = false;
+            return false;
+        }
+
+        mWakeTask = wakeTask;
+        return true;
+    }
+
+    /**
+     * stop parking on guard timeout, if not signaled yet. counted as timeout.
+     * @param wakeTask task given to {@link #park(Runnable)}
+     * @return true if unparked, so caller should run wake task itself. false if not parked with it.
+     */
+    public synchronized boolean unpark(Runnable wakeTask) {
+        if (wakeTask == null || mWakeTask != wakeTask) {
+            return false;
+        }
+
+        mWakeTask = null;
+        mTimeoutCount ++;
+        return true;
+    }
+
+    /**
+     * wait until signaled, timeout or interrupted. interrupt status is kept.
+     */
+    public synchronized void await() {
+        if (!mReady) {
+            try {
+                wait(GUARD_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                // InterruptedException will consume interrupt status
+                Thread.currentThread().interrupt();
+            }
+
+            if (!mReady && !Thread.currentThread().isInterrupted()) {
+                mTimeoutCount ++;
+            }
+        }
+        mReady = false;
+    }
+
+    public synchronized long getTimeoutCount() {
+        return mTimeoutCount;
+    }
+}
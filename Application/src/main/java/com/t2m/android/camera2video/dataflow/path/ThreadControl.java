@@ -0,0 +1,93 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.path;
+
+import android.os.Process;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * ThreadControl<br>
+ * Priority and id of threads of paths and nodes. {@link #ANDROID} uses {@link Process}, and
+ * {@link #JVM} runs the same graphs on a plain JVM, where {@link Process} is a stub: priority is
+ * ignored and tid is read from procfs.<br>
+ * Default is {@link #ANDROID} if it works in this process, otherwise {@link #JVM}. Could be
+ * replaced by {@link #setDefault(ThreadControl)}, e.g. by tests, before any path is started.
+ */
+public abstract class ThreadControl {
+    public static final ThreadControl ANDROID = new ThreadControl() {
+        @Override
+        public void setThreadPriority(int priority) {
+            Process.setThreadPriority(priority);
+        }
+
+        @Override
+        public int myTid() {
+            return Process.myTid();
+        }
+    };
+
+    public static final ThreadControl JVM = new ThreadControl() {
+        @Override
+        public void setThreadPriority(int priority) {
+            // no thread priority of android on jvm
+        }
+
+        @Override
+        public int myTid() {
+            // /proc/thread-self links to /proc/<pid>/task/<tid> on linux
+            try {
+                return Integer.parseInt(new File("/proc/thread-self").getCanonicalFile().getName());
+            } catch (IOException | NumberFormatException e) {
+                return -1;
+            }
+        }
+    };
+
+    private static volatile ThreadControl sDefault;
+
+    /**
+     * @return control used by paths and nodes
+     */
+    public static ThreadControl getDefault() {
+        ThreadControl control = sDefault;
+        if (control == null) {
+            control = detect();
+            sDefault = control;
+        }
+        return control;
+    }
+
+    /**
+     * @param control control used by paths and nodes from now on
+     */
+    public static void setDefault(ThreadControl control) {
+        if (control == null) {
+            throw new IllegalArgumentException("null control");
+        }
+        sDefault = control;
+    }
+
+    private static ThreadControl detect() {
+        try {
+            // stub of android.jar throws, or returns 0 if built to return default values
+            if (Process.myTid() > 0) {
+                return ANDROID;
+            }
+        } catch (RuntimeException e) {
+            // not android
+        }
+        return JVM;
+    }
+
+    /**
+     * set priority of current thread
+     * @param priority e.g. {@link Process#THREAD_PRIORITY_URGENT_AUDIO}
+     */
+    public abstract void setThreadPriority(int priority);
+
+    /**
+     * @return id of current thread in kernel, -1 if not available
+     */
+    public abstract int myTid();
+}
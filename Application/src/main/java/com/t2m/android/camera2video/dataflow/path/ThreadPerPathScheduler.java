@@ -0,0 +1,72 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.path;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scheduler that runs every path in a dedicated thread. The thread blocks while the path waits.
+ */
+public class ThreadPerPathScheduler implements PathScheduler {
+    private final AtomicInteger mThreadCount = new AtomicInteger();
+    private final List<Integer> mLiveTids = new ArrayList<>();
+    private long mContextSwitches = 0; // of finished threads, guarded by mLiveTids
+
+    @Override
+    public void schedule(DataPath path) {
+        mThreadCount.incrementAndGet();
+        path.startThread(this);
+    }
+
+    /**
+     * called by path thread when started
+     * @param tid id of the thread, -1 if not available
+     */
+    void onThreadStart(int tid) {
+        synchronized (mLiveTids) {
+            mLiveTids.add(tid);
+        }
+    }
+
+    /**
+     * called by path thread before exit
+     * @param tid id of the thread, -1 if not available
+     * @param contextSwitches context switches of the exiting thread, -1 if not available
+     */
+    void onThreadExit(int tid, long contextSwitches) {
+        synchronized (mLiveTids) {
+            mLiveTids.remove(Integer.valueOf(tid));
+            if (contextSwitches > 0) {
+                mContextSwitches += contextSwitches;
+            }
+        }
+    }
+
+    @Override
+    public int getThreadCount() {
+        return mThreadCount.get();
+    }
+
+    /**
+     * @return context switches of finished and live path threads
+     */
+    @Override
+    public long getContextSwitches() {
+        synchronized (mLiveTids) {
+            long count = mContextSwitches;
+            for (int i = 0; i < mLiveTids.size(); i++) {
+                long threadCount = ThreadStats.getContextSwitches(mLiveTids.get(i));
+                if (threadCount > 0) {
+                    count += threadCount;
+                }
+            }
+            return count;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        // do nothing. threads exit with path
+    }
+}
@@ -0,0 +1,54 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.path;
+
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Read per thread statistics from procfs
+ */
+final class ThreadStats {
+    private static final String KEY_VOLUNTARY = "voluntary_ctxt_switches:";
+    private static final String KEY_NON_VOLUNTARY = "nonvoluntary_ctxt_switches:";
+
+    private ThreadStats() {
+    }
+
+    /**
+     * @return context switches of current thread, -1 if not available
+     */
+    static long getContextSwitches() {
+        return getContextSwitches(ThreadControl.getDefault().myTid());
+    }
+
+    /**
+     * @param tid thread id in this process
+     * @return voluntary and non-voluntary context switches of the thread, -1 if not available
+     */
+    static long getContextSwitches(int tid) {
+        java.io.BufferedReader reader = null;
+        try {
+            reader = new java.io.BufferedReader(new FileReader("/proc/self/task/" + tid + "/status"));
+            long count = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(KEY_VOLUNTARY)) {
+                    count += Long.parseLong(line.substring(KEY_VOLUNTARY.length()).trim());
+                } else if (line.startsWith(KEY_NON_VOLUNTARY)) {
+                    count += Long.parseLong(line.substring(KEY_NON_VOLUNTARY.length()).trim());
+                }
+            }
+            return count;
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
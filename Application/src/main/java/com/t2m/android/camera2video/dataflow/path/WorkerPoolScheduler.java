@@ -0,0 +1,196 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.path;
+
+import android.util.Log;
+
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scheduler that runs paths on a small fixed pool of worker threads.<br>
+ * Paths are run step by step. A path gives up its worker when it has to wait, and is scheduled again
+ * on readiness signal (or after retry delay for ports that can only be polled), or after
+ * {@link #STEP_QUANTUM} samples so that other paths get their turn.<br>
+ * Paths of {@link DataNode#LATENCY_REALTIME} are not pooled. They run in dedicated threads, so
+ * that they never wait for a worker held by another path.
+ */
+public class WorkerPoolScheduler implements PathScheduler {
+    private static final String TAG = WorkerPoolScheduler.class.getSimpleName();
+
+    /**
+     * max samples transferred by a path before giving up its worker
+     */
+    private static final int STEP_QUANTUM = 8;
+
+    private final String mName;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final List<Integer> mWorkerTids = new ArrayList<>();
+    private final AtomicInteger mThreadCount = new AtomicInteger();
+    private final ThreadPerPathScheduler mRealtimeScheduler = new ThreadPerPathScheduler();
+
+    /**
+     * create scheduler with one worker per cpu core
+     * @param name name for worker threads
+     */
+    public WorkerPoolScheduler(String name) {
+        this(name, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param name name for worker threads
+     * @param threadCount number of worker threads
+     */
+    public WorkerPoolScheduler(String name, int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("invalid thread count: " + threadCount);
+        }
+
+        mName = name;
+        mExecutor = new ScheduledThreadPoolExecutor(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (mWorkerTids) {
+                            mWorkerTids.add(ThreadControl.getDefault().myTid());
+                        }
+                        r.run();
+                    }
+                }, mName + "#Worker-" + mThreadCount.incrementAndGet());
+            }
+        });
+        mExecutor.setRemoveOnCancelPolicy(true); // guard tasks are mostly canceled
+    }
+
+    @Override
+    public void schedule(DataPath path) {
+        if (path.getLatencyClass() == DataNode.LATENCY_REALTIME) {
+            mRealtimeScheduler.schedule(path);
+            return;
+        }
+
+        PathRunner runner = new PathRunner(path);
+        path.onProcessStart();
+        runner.wake();
+    }
+
+    @Override
+    public int getThreadCount() {
+        return mThreadCount.get() + mRealtimeScheduler.getThreadCount();
+    }
+
+    /**
+     * @return context switches of live worker threads and finished realtime threads
+     */
+    @Override
+    public long getContextSwitches() {
+        long count = mRealtimeScheduler.getContextSwitches();
+        synchronized (mWorkerTids) {
+            for (int tid : mWorkerTids) {
+                long threadCount = ThreadStats.getContextSwitches(tid);
+                if (threadCount > 0) {
+                    count += threadCount;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Run path by steps. At most one runner task of a path is queued or running at the same time.
+     */
+    private class PathRunner implements Runnable {
+        private final DataPath mPath;
+        private final Runnable mWakeTask = new Runnable() {
+            @Override
+            public void run() {
+                wake();
+            }
+        };
+        private final Runnable mGuardTask = new Runnable() {
+            @Override
+            public void run() {
+                if (mPath.unpark(mWakeTask)) {
+                    Log.w(TAG, "[" + mPath.getName() + "] no ready signal in " + ReadyWaiter.GUARD_TIMEOUT_MS + " ms. retry.");
+                    wake();
+                }
+            }
+        };
+        private volatile ScheduledFuture<?> mGuard; // a late guard only causes an early retry
+
+        PathRunner(DataPath path) {
+            mPath = path;
+        }
+
+        void wake() {
+            try {
+                mExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                Log.e(TAG, "[" + mPath.getName() + "] scheduler shutdown. path stopped.");
+                mPath.onProcessFinish();
+            }
+        }
+
+        @Override
+        public void run() {
+            ScheduledFuture<?> guard = mGuard;
+            if (guard != null) {
+                mGuard = null;
+                guard.cancel(false); // woken before guard timeout
+            }
+
+            for (int i = 0; i < STEP_QUANTUM; i++) {
+                int result;
+                try {
+                    result = mPath.step();
+                } catch (Exception e) {
+                    Log.e(TAG, "[" + mPath.getName() + "] step()# exception detected.", e);
+                    result = DataPath.STEP_FINISHED;
+                }
+
+                if (result == DataPath.STEP_FINISHED) {
+                    mPath.onProcessFinish();
+                    return;
+                } else if (result != DataPath.STEP_OK) {
+                    long delay = mPath.prepareRetry(result, mWakeTask);
+                    if (delay == 0) {
+                        wake();
+                    } else {
+                        boolean parked = delay < 0;
+                        try {
+                            if (parked) {
+                                // mWakeTask is run on ready signal, or by mGuardTask if signal is missed
+                                mGuard = mExecutor.schedule(mGuardTask, ReadyWaiter.GUARD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                            } else {
+                                mExecutor.schedule(this, delay, TimeUnit.MILLISECONDS);
+                            }
+                        } catch (RejectedExecutionException e) {
+                            if (!parked || mPath.unpark(mWakeTask)) {
+                                Log.e(TAG, "[" + mPath.getName() + "] scheduler shutdown. path stopped.");
+                                mPath.onProcessFinish();
+                            }
+                        }
+                    }
+                    return;
+                }
+            }
+
+            // quantum used up
+            wake();
+        }
+    }
+}
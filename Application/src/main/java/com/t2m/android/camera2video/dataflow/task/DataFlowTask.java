@@ -3,15 +3,22 @@ package com.t2m.android.camera2video.dataflow.task;
 
 import android.util.Log;
 
+import com.t2m.android.camera2video.dataflow.data.BufferPool;
 import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.NodeMetrics;
 import com.t2m.android.camera2video.dataflow.path.DataPath;
+import com.t2m.android.camera2video.dataflow.path.PathMetrics;
+import com.t2m.android.camera2video.dataflow.path.PathScheduler;
+import com.t2m.android.camera2video.dataflow.path.ThreadPerPathScheduler;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Data flow task
+ * Data flow task<br>
+ * Lifecycle of nodes and paths could be observed by {@link Listener}, with timings for e.g. time
+ * to first recorded sample and stop latency.
  */
 public class DataFlowTask extends Thread {
     private static final String TAG = DataFlowTask.class.getSimpleName();
@@ -23,21 +30,123 @@ public class DataFlowTask extends Thread {
     public static final int RESULT_ERROR = 1;
     public static final int RESULT_NOT_FINISHED = 2;
 
-    private final List<DataNode> mNodeList = new ArrayList<>();
+    private final NodeGroup mNodeGroup = new NodeGroup();
     private final List<DataPath> mPathList = new ArrayList<>();
     private int mResult = RESULT_NOT_FINISHED;
     /* MODIFIED-END by Fan.Hu,BUG-5709670*/
+    private PathScheduler mScheduler = new ThreadPerPathScheduler();
+    private volatile long mStopLatencyNs = 0;
+    private volatile int mLostSamples = 0;
+    private volatile long mRunStartNs = 0;
+    private volatile Listener mListener;
+    private final Object mPrepareLock = new Object(); // prepare() and release before start
+    private boolean mReleased = false; // stopped or canceled before started
+
+    private final NodeGroup.Callback mNodeCallback = new NodeGroup.Callback() {
+        @Override
+        public void onOpened(DataNode node, long openNs, IOException error) {
+            Listener listener = mListener;
+            if (listener == null) {
+                return;
+            }
+
+            if (error == null) {
+                listener.onNodeOpened(DataFlowTask.this, node, openNs);
+            } else {
+                listener.onError(DataFlowTask.this, node.getClass().getSimpleName(), error);
+            }
+        }
+
+        @Override
+        public void onClosed(DataNode node, long closeNs, IOException error) {
+            Listener listener = mListener;
+            if (listener == null) {
+                return;
+            }
+
+            if (error == null) {
+                listener.onNodeClosed(DataFlowTask.this, node, closeNs);
+            } else {
+                listener.onError(DataFlowTask.this, node.getClass().getSimpleName(), error);
+            }
+        }
+    };
+
+    private final DataPath.OnEventListener mPathListener = new DataPath.OnEventListener() {
+        @Override
+        public void onEvent(DataPath path, int event, long timeNs) {
+            Listener listener = mListener;
+            if (listener == null) {
+                return;
+            }
+
+            long elapsedNs = timeNs - mRunStartNs;
+            switch (event) {
+                case DataPath.EVENT_STARTED:
+                    listener.onPathStarted(DataFlowTask.this, path, elapsedNs);
+                    break;
+                case DataPath.EVENT_FIRST_SAMPLE:
+                    listener.onFirstSample(DataFlowTask.this, path, elapsedNs);
+                    break;
+                case DataPath.EVENT_EOS:
+                    listener.onEos(DataFlowTask.this, path, elapsedNs);
+                    break;
+                case DataPath.EVENT_ERROR:
+                    listener.onError(DataFlowTask.this, path.getName(), new IOException("path stopped by error"));
+                    break;
+                case DataPath.EVENT_FINISHED:
+                    listener.onPathFinished(DataFlowTask.this, path, elapsedNs);
+                    break;
+                default:
+                    break;
+            }
+        }
+    };
 
     public DataFlowTask(String name) {
         super(name);
+        mNodeGroup.setCallback(mNodeCallback);
     }
 
+    /**
+     * set listener of lifecycle. Should be set before {@link #prepare()} or {@link #start()}.
+     * @param listener listener, null to remove
+     * @return this
+     */
+    public DataFlowTask setListener(Listener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * add node to be opened and closed after nodes added by this method before, one by one.
+     * @param node node
+     * @return this
+     */
     public DataFlowTask addNode(DataNode node) {
         if (isAlive()) {
             throw new IllegalStateException("Should not add node duration task is running");
         }
 
-        mNodeList.add(node);
+        mNodeGroup.addSequential(node);
+
+        return this;
+    }
+
+    /**
+     * add node. Nodes are opened and closed concurrently, except that node is opened after its
+     * dependencies are opened, and closed before them. Nodes without dependencies are opened
+     * concurrently, use {@link #addNode(DataNode)} to keep them in order.
+     * @param node node
+     * @param dependencies nodes added already
+     * @return this
+     */
+    public DataFlowTask addNode(DataNode node, DataNode... dependencies) {
+        if (isAlive()) {
+            throw new IllegalStateException("Should not add node duration task is running");
+        }
+
+        mNodeGroup.add(node, dependencies);
 
         return this;
     }
@@ -48,10 +157,89 @@ public class DataFlowTask extends Thread {
         }
 
         mPathList.add(path);
+        path.setOnEventListener(mPathListener);
 
         return this;
     }
 
+    /**
+     * set scheduler to run paths. default is a {@link ThreadPerPathScheduler} owned by this task.<br>
+     * The scheduler is not shutdown by task, so that it could be shared by several tasks.
+     * @param scheduler scheduler
+     * @return this
+     */
+    public DataFlowTask setScheduler(PathScheduler scheduler) {
+        if (isAlive()) {
+            throw new IllegalStateException("Should not set scheduler duration task is running");
+        }
+        if (scheduler == null) {
+            throw new IllegalArgumentException("null scheduler");
+        }
+
+        mScheduler = scheduler;
+
+        return this;
+    }
+
+    public PathScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * open all nodes in caller thread before {@link #start()}, so that task starts without delay
+     * of opening nodes (e.g. codec creation). Nodes stay opened until task finishes.
+     * Nodes are closed if any failed, or by {@link #stop(long)} or {@link #cancel()} if task is not
+     * started. Could be called in another thread than start and stop.
+     */
+    public void prepare() throws IOException {
+        if (isAlive()) {
+            throw new IllegalStateException("Should prepare before task is started");
+        }
+
+        synchronized (mPrepareLock) {
+            if (mReleased) {
+                throw new IllegalStateException("Should not prepare task stopped already");
+            }
+            mNodeGroup.open();
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (mReleased) {
+            throw new IllegalStateException("Should not start task stopped already");
+        }
+        super.start();
+    }
+
+    /**
+     * close nodes opened by {@link #prepare()} if task is not started, since only run() closes them
+     * otherwise. Task could not be started after that.
+     * @return true if task is not started
+     */
+    private boolean releaseIfNotStarted() {
+        // start() is synchronized on this too, so task is either started or never will be
+        synchronized (this) {
+            if (getState() != State.NEW) {
+                return false;
+            }
+            mReleased = true;
+        }
+
+        synchronized (mPrepareLock) {
+            try {
+                mNodeGroup.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close nodes of task not started failed", e);
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onError(this, getName(), e);
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
     public void run() {
         /* MODIFIED-BEGIN by Fan.Hu, 2018-01-19,BUG-5709670*/
@@ -61,19 +249,21 @@ public class DataFlowTask extends Thread {
         }
         /* MODIFIED-END by Fan.Hu,BUG-5709670*/
 
+        mRunStartNs = System.nanoTime();
+
         // for child class to do something
         onCreate();
 
         // do run
         try {
-            // open
-            for (DataNode node : mNodeList) {
-                node.open();
+            // open. does nothing if opened by prepare().
+            synchronized (mPrepareLock) {
+                mNodeGroup.open();
             }
 
             // process
             for (DataPath path : mPathList) {
-                path.processAsync();
+                path.processAsync(mScheduler);
             }
 
             // wait
@@ -82,9 +272,7 @@ public class DataFlowTask extends Thread {
             }
 
             // close
-            for (DataNode node : mNodeList) {
-                node.close();
-            }
+            mNodeGroup.close();
 
             /* MODIFIED-BEGIN by Fan.Hu, 2018-01-18,BUG-5709670*/
             mResult = RESULT_OK;
@@ -96,9 +284,20 @@ public class DataFlowTask extends Thread {
             // for child class to do something
             onDestroy();
 
+            Listener listener = mListener;
+            if (listener != null) {
+                listener.onFinished(this, mResult, System.nanoTime() - mRunStartNs);
+            }
+
             /* MODIFIED-BEGIN by Fan.Hu, 2018-01-19,BUG-5709670*/
             if (DEBUG_PERFORMANCE) {
-                Log.i("==Performance==", "DataFlowTask.run()# " + (System.currentTimeMillis() - startTime));
+                Log.i("==Performance==", "DataFlowTask.run()# " + (System.currentTimeMillis() - startTime)
+                        + ", scheduler: " + mScheduler.getClass().getSimpleName()
+                        + ", threads: " + mScheduler.getThreadCount()
+                        + ", context switches: " + mScheduler.getContextSwitches());
+                Log.i("==Performance==", getMetrics().toString());
+                Log.i("==Performance==", BufferPool.getDefault().toString());
+                Log.i("==Performance==", BufferPool.getDefaultDirect().toString());
             }
             /* MODIFIED-END by Fan.Hu,BUG-5709670*/
         }
@@ -106,12 +305,104 @@ public class DataFlowTask extends Thread {
 
     /* MODIFIED-BEGIN by Fan.Hu, 2018-01-20,BUG-5709670*/
     public void cancel() {
+        if (releaseIfNotStarted()) {
+            Log.i(TAG, "cancel()# " + getName() + " not started, nodes closed");
+            return;
+        }
+
         for (DataPath path : mPathList) {
             path.cancel();
             /* MODIFIED-END by Fan.Hu,BUG-5709670*/
         }
     }
 
+    /**
+     * stop gracefully instead of {@link #cancel()}. Eos is requested from source nodes, so that
+     * samples captured already are drained through all paths in order of the graph, and nodes are
+     * closed normally (e.g. muxer is finalized). Paths are canceled if task does not finish in
+     * time, then samples left in nodes and paths are lost.<br>
+     * If task is not started, nodes opened by {@link #prepare()} are closed and nothing is drained.
+     * @param timeoutMs max time to drain and close nodes
+     * @return true if drained, false if canceled or not started
+     */
+    public boolean stop(long timeoutMs) {
+        long start = System.nanoTime();
+
+        if (releaseIfNotStarted()) {
+            mStopLatencyNs = System.nanoTime() - start;
+            mLostSamples = 0;
+            Log.i(TAG, "stop()# " + getName() + " not started, nodes closed in " + mStopLatencyNs / 1000000 + "ms");
+
+            Listener listener = mListener;
+            if (listener != null) {
+                listener.onStopped(this, false, mStopLatencyNs, 0);
+            }
+            return false;
+        }
+
+        int sources = 0;
+        for (DataNode node : mNodeGroup.getNodes()) {
+            if (node.requestEos()) {
+                sources ++;
+            }
+        }
+        if (sources == 0) {
+            Log.w(TAG, "stop()# no node could end stream. cancel");
+        }
+
+        boolean drained = sources > 0 && waitForFinish(timeoutMs);
+        int lost = 0;
+        if (!drained) {
+            // count before cancel, while samples are still there
+            for (DataNode node : mNodeGroup.getNodes()) {
+                lost += node.getPendingCount();
+            }
+            for (DataPath path : mPathList) {
+                if (path.hasSampleInFlight()) {
+                    lost ++;
+                }
+            }
+            cancel();
+            waitForFinish();
+        }
+
+        mStopLatencyNs = System.nanoTime() - start;
+        mLostSamples = lost;
+        Log.i(TAG, "stop()# " + getName() + (drained ? " drained" : " canceled")
+                + " in " + mStopLatencyNs / 1000000 + "ms, lost samples: " + lost);
+
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onStopped(this, drained, mStopLatencyNs, lost);
+        }
+        return drained;
+    }
+
+    private boolean waitForFinish(long timeoutMs) {
+        try {
+            join(Math.max(timeoutMs, 1));
+        } catch (InterruptedException e) {
+            Log.w(TAG, "stop()# interrupted. cancel");
+            Thread.currentThread().interrupt();
+        }
+        return !isAlive();
+    }
+
+    /**
+     * @return time of last {@link #stop(long)}, including drain and close of nodes
+     */
+    public long getStopLatencyNs() {
+        return mStopLatencyNs;
+    }
+
+    /**
+     * @return samples lost by last {@link #stop(long)}, 0 if drained. Samples inside codecs are
+     * not counted.
+     */
+    public int getLostSamples() {
+        return mLostSamples;
+    }
+
     public void waitForFinish() {
         try {
             join();
@@ -120,6 +411,25 @@ public class DataFlowTask extends Thread {
         }
     }
 
+    /**
+     * collect metrics of all paths and nodes. could be called any time, also when running.
+     * @return snapshot of metrics
+     */
+    public TaskMetrics getMetrics() {
+        List<PathMetrics> paths = new ArrayList<>(mPathList.size());
+        for (DataPath path : mPathList) {
+            paths.add(path.getMetrics().snapshot());
+        }
+
+        List<DataNode> nodeList = mNodeGroup.getNodes();
+        List<NodeMetrics> nodes = new ArrayList<>(nodeList.size());
+        for (DataNode node : nodeList) {
+            nodes.add(node.getMetrics());
+        }
+        return new TaskMetrics(getName(), paths, nodes, mNodeGroup.getOpenTime(), mNodeGroup.getOpenTimes(),
+                mNodeGroup.getCloseTime(), mNodeGroup.getCloseTimes());
+    }
+
     /* MODIFIED-BEGIN by Fan.Hu, 2018-01-18,BUG-5709670*/
     public int getResult() {
         return mResult;
@@ -133,4 +443,92 @@ public class DataFlowTask extends Thread {
     protected void onDestroy() {
         // do nothing
     }
+
+    /**
+     * Listener of task lifecycle.<br>
+     * Called in threads of nodes and paths, so should be thread safe and return quickly. Elapsed
+     * time is since task started running, i.e. after nodes opened by {@link #prepare()}.
+     * @see SimpleListener
+     */
+    public interface Listener {
+        /**
+         * @param openNs time to open node
+         */
+        void onNodeOpened(DataFlowTask task, DataNode node, long openNs);
+
+        /**
+         * @param closeNs time to close node, e.g. to finalize output
+         */
+        void onNodeClosed(DataFlowTask task, DataNode node, long closeNs);
+
+        void onPathStarted(DataFlowTask task, DataPath path, long elapsedNs);
+
+        /**
+         * first sample other than codec config is written by path
+         */
+        void onFirstSample(DataFlowTask task, DataPath path, long elapsedNs);
+
+        void onEos(DataFlowTask task, DataPath path, long elapsedNs);
+
+        void onPathFinished(DataFlowTask task, DataPath path, long elapsedNs);
+
+        /**
+         * @param source name of node or path
+         */
+        void onError(DataFlowTask task, String source, Exception e);
+
+        /**
+         * @param result {@link #RESULT_OK} or {@link #RESULT_ERROR}
+         */
+        void onFinished(DataFlowTask task, int result, long elapsedNs);
+
+        /**
+         * called by {@link #stop(long)}
+         * @param drained false if canceled after timeout, or task was not started
+         * @param latencyNs time to stop, including drain and close of nodes
+         * @param lostSamples samples lost by cancel
+         */
+        void onStopped(DataFlowTask task, boolean drained, long latencyNs, int lostSamples);
+    }
+
+    /**
+     * Listener with empty callbacks, to override only what is needed
+     */
+    public static class SimpleListener implements Listener {
+        @Override
+        public void onNodeOpened(DataFlowTask task, DataNode node, long openNs) {
+        }
+
+        @Override
+        public void onNodeClosed(DataFlowTask task, DataNode node, long closeNs) {
+        }
+
+        @Override
+        public void onPathStarted(DataFlowTask task, DataPath path, long elapsedNs) {
+        }
+
+        @Override
+        public void onFirstSample(DataFlowTask task, DataPath path, long elapsedNs) {
+        }
+
+        @Override
+        public void onEos(DataFlowTask task, DataPath path, long elapsedNs) {
+        }
+
+        @Override
+        public void onPathFinished(DataFlowTask task, DataPath path, long elapsedNs) {
+        }
+
+        @Override
+        public void onError(DataFlowTask task, String source, Exception e) {
+        }
+
+        @Override
+        public void onFinished(DataFlowTask task, int result, long elapsedNs) {
+        }
+
+        @Override
+        public void onStopped(DataFlowTask task, boolean drained, long latencyNs, int lostSamples) {
+        }
+    }
 }
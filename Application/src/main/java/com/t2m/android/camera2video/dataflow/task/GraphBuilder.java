@@ -0,0 +1,226 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.task;
+
+import com.t2m.android.camera2video.dataflow.node.BufferedReader;
+import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DirectReader;
+import com.t2m.android.camera2video.dataflow.node.DirectWriter;
+import com.t2m.android.camera2video.dataflow.path.AudioDataPath;
+import com.t2m.android.camera2video.dataflow.path.AudioFanOutDataPath;
+import com.t2m.android.camera2video.dataflow.path.DataPath;
+import com.t2m.android.camera2video.dataflow.path.FanOutDataPath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * GraphBuilder<br>
+ * Builds a {@link DataFlowTask} from connections between nodes, instead of choosing ports and
+ * path constructors by hand. For each connection the cheapest pairing supported by both nodes is
+ * chosen, in order: buffered reader to direct writer and direct reader to buffered writer (no
+ * copy by path), buffered to buffered (one copy), direct to direct (path buffer in between).
+ * A node connected to several nodes gets a fan-out path from its buffered reader.<br>
+ * Invalid graphs (unsupported pairing, duplicated connection, cycle) are rejected before any
+ * node is opened. Nodes are added in topological order: a node is opened after the nodes it
+ * writes to, and closed before them, so no sample is produced before its consumer is ready.<br>
+ * A path gets the most urgent latency class of its nodes, e.g. a path reading audio capture is
+ * real time.
+ */
+public class GraphBuilder {
+    private static class Connection {
+        final String name;
+        final DataNode from;
+        final DataNode to;
+
+        Connection(String name, DataNode from, DataNode to) {
+            this.name = name;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final String mName;
+    private final List<DataNode> mNodes = new ArrayList<>();
+    private final List<Connection> mConnections = new ArrayList<>();
+
+    /**
+     * @param name name of task
+     */
+    public GraphBuilder(String name) {
+        mName = name;
+    }
+
+    /**
+     * add node without connection
+     * @return this
+     */
+    public GraphBuilder addNode(DataNode node) {
+        if (node == null) {
+            throw new IllegalArgumentException("null node");
+        }
+        if (!mNodes.contains(node)) {
+            mNodes.add(node);
+        }
+        return this;
+    }
+
+    /**
+     * connect output of a node to input of another node
+     * @return this
+     */
+    public GraphBuilder connect(DataNode from, DataNode to) {
+        return connect(from.getClass().getSimpleName() + "->" + to.getClass().getSimpleName(), from, to);
+    }
+
+    /**
+     * connect output of a node to input of another node
+     * @param name name of path
+     * @return this
+     */
+    public GraphBuilder connect(String name, DataNode from, DataNode to) {
+        if (from == null || to == null || from == to) {
+            throw new IllegalArgumentException("invalid connection: " + from + " -> " + to);
+        }
+        for (Connection connection : mConnections) {
+            if (connection.from == from && connection.to == to) {
+                throw new IllegalArgumentException("duplicated connection: " + name);
+            }
+        }
+        if (!from.hasPort(BufferedReader.class) && !from.hasPort(DirectReader.class)) {
+            throw new IllegalArgumentException(name + ": " + from.getClass().getSimpleName() + " has no reader");
+        }
+        if (!to.hasPort(BufferedWriter.class) && !to.hasPort(DirectWriter.class)) {
+            throw new IllegalArgumentException(name + ": " + to.getClass().getSimpleName() + " has no writer");
+        }
+
+        addNode(from);
+        addNode(to);
+        mConnections.add(new Connection(name, from, to));
+        return this;
+    }
+
+    /**
+     * @return new task of graph
+     */
+    public DataFlowTask build() {
+        return build(new DataFlowTask(mName));
+    }
+
+    /**
+     * add graph to task, e.g. a subclass of {@link DataFlowTask}
+     * @param task task without nodes
+     * @return task
+     */
+    public DataFlowTask build(DataFlowTask task) {
+        // create all paths first, so that nothing is added to task if graph is invalid
+        List<DataPath> paths = new ArrayList<>();
+        for (DataNode node : mNodes) {
+            List<Connection> outputs = getOutputs(node);
+            if (outputs.isEmpty()) {
+                continue;
+            }
+
+            DataPath path = outputs.size() == 1 ? createPath(outputs.get(0)) : createFanOutPath(node, outputs);
+            int latencyClass = node.getLatencyClass();
+            for (Connection connection : outputs) {
+                latencyClass = Math.min(latencyClass, connection.to.getLatencyClass());
+            }
+            path.setLatencyClass(latencyClass);
+            paths.add(path);
+        }
+
+        for (DataNode node : sort()) {
+            List<Connection> outputs = getOutputs(node);
+            DataNode[] dependencies = new DataNode[outputs.size()];
+            for (int i = 0; i < dependencies.length; i++) {
+                dependencies[i] = outputs.get(i).to;
+            }
+            task.addNode(node, dependencies);
+        }
+        for (DataPath path : paths) {
+            task.addPath(path);
+        }
+        return task;
+    }
+
+    private List<Connection> getOutputs(DataNode node) {
+        List<Connection> outputs = new ArrayList<>();
+        for (Connection connection : mConnections) {
+            if (connection.from == node) {
+                outputs.add(connection);
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * @return nodes with every node after the nodes it writes to
+     */
+    private List<DataNode> sort() {
+        List<DataNode> sorted = new ArrayList<>(mNodes.size());
+        List<DataNode> remain = new ArrayList<>(mNodes);
+        while (!remain.isEmpty()) {
+            boolean found = false;
+            for (int i = 0; i < remain.size(); i++) {
+                DataNode node = remain.get(i);
+                boolean ready = true;
+                for (Connection connection : getOutputs(node)) {
+                    if (!sorted.contains(connection.to)) {
+                        ready = false;
+                        break;
+                    }
+                }
+                if (ready) {
+                    sorted.add(node);
+                    remain.remove(i);
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                StringBuilder names = new StringBuilder();
+                for (DataNode node : remain) {
+                    names.append(names.length() == 0 ? "" : ", ").append(node.getClass().getSimpleName());
+                }
+                throw new IllegalStateException("graph has cycle among: " + names);
+            }
+        }
+        return sorted;
+    }
+
+    private static DataPath createPath(Connection connection) {
+        DataNode from = connection.from;
+        DataNode to = connection.to;
+        if (from.hasPort(BufferedReader.class) && to.hasPort(DirectWriter.class)) {
+            return new AudioDataPath(connection.name, from.getBufferedReader(), to.getDirectWriter());
+        } else if (from.hasPort(DirectReader.class) && to.hasPort(BufferedWriter.class)) {
+            return new AudioDataPath(connection.name, from.getDirectReader(), to.getBufferedWriter());
+        } else if (from.hasPort(BufferedReader.class) && to.hasPort(BufferedWriter.class)) {
+            return new AudioDataPath(connection.name, from.getBufferedReader(), to.getBufferedWriter());
+        } else {
+            // both checked in connect(), so only direct to direct is left
+            return new AudioDataPath(connection.name, from.getDirectReader(), to.getDirectWriter());
+        }
+    }
+
+    private static DataPath createFanOutPath(DataNode from, List<Connection> outputs) {
+        if (!from.hasPort(BufferedReader.class)) {
+            throw new IllegalStateException("fan out of " + from.getClass().getSimpleName() + " needs buffered reader");
+        }
+
+        StringBuilder name = new StringBuilder(from.getClass().getSimpleName()).append("->");
+        for (int i = 0; i < outputs.size(); i++) {
+            name.append(i == 0 ? "" : ",").append(outputs.get(i).to.getClass().getSimpleName());
+        }
+        FanOutDataPath path = new AudioFanOutDataPath(name.toString(), from.getBufferedReader());
+        for (Connection connection : outputs) {
+            if (connection.to.hasPort(DirectWriter.class)) {
+                path.addWriter(connection.to.getDirectWriter()); // shares sample, no copy
+            } else {
+                path.addWriter(connection.to.getBufferedWriter());
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,315 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.task;
+
+import android.util.Log;
+
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * NodeGroup<br>
+ * Nodes of a {@link DataFlowTask}, opened and closed concurrently. A node is opened after the
+ * nodes it depends on are opened, and closed before them. So time to open all nodes is the
+ * longest chain of open latencies instead of their sum.<br>
+ * If a node fails to open, nodes depending on it are not opened, and nodes opened are closed.<br>
+ * Nodes added by {@link #addSequential(DataNode)} are opened and closed one after another in adding
+ * order, like nodes of a task before nodes had dependencies.<br>
+ * Opening a group opened already does nothing, so nodes opened by {@link DataFlowTask#prepare()}
+ * are not opened again.
+ */
+class NodeGroup {
+    private static final String TAG = NodeGroup.class.getSimpleName();
+
+    private static class Entry {
+        final DataNode node;
+        final List<Entry> dependencies = new ArrayList<>();
+        final List<Entry> dependents = new ArrayList<>();
+        Entry previous; // previous sequential entry
+        CountDownLatch done;
+        volatile boolean failed;
+        volatile long openNs = 0;
+        volatile long closeNs = 0;
+
+        Entry(DataNode node) {
+            this.node = node;
+        }
+    }
+
+    /**
+     * called in thread of node when it is opened or closed
+     */
+    interface Callback {
+        /**
+         * @param error null if succeeded
+         */
+        void onOpened(DataNode node, long openNs, IOException error);
+
+        /**
+         * @param error null if succeeded
+         */
+        void onClosed(DataNode node, long closeNs, IOException error);
+    }
+
+    private final List<Entry> mEntries = new ArrayList<>();
+    private Entry mLastSequential;
+    private Callback mCallback;
+    private volatile boolean mOpened = false;
+    private volatile long mOpenNs = 0;
+    private volatile long mCloseNs = 0;
+
+    /**
+     * @param node node
+     * @param dependencies nodes added already, to be opened before and closed after node
+     */
+    void add(DataNode node, DataNode... dependencies) {
+        Entry entry = new Entry(node);
+        for (DataNode dependency : dependencies) {
+            Entry found = find(dependency);
+            if (found == null) {
+                throw new IllegalArgumentException("dependency should be added before: " + dependency);
+            }
+            entry.dependencies.add(found);
+            found.dependents.add(entry);
+        }
+        mEntries.add(entry);
+    }
+
+    /**
+     * @param node node to be opened and closed after nodes added by this method before
+     */
+    void addSequential(DataNode node) {
+        add(node);
+        Entry entry = mEntries.get(mEntries.size() - 1);
+        entry.previous = mLastSequential;
+        mLastSequential = entry;
+    }
+
+    void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    private Entry find(DataNode node) {
+        for (Entry entry : mEntries) {
+            if (entry.node == node) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    List<DataNode> getNodes() {
+        List<DataNode> nodes = new ArrayList<>(mEntries.size());
+        for (Entry entry : mEntries) {
+            nodes.add(entry.node);
+        }
+        return nodes;
+    }
+
+    /**
+     * open all nodes. nodes opened are closed if any node failed. does nothing if opened already.
+     */
+    void open() throws IOException {
+        if (mOpened) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        IOException error = run(true);
+        mOpenNs = System.nanoTime() - start;
+        if (error != null) {
+            IOException closeError = run(false); // close nodes opened
+            if (closeError != null) {
+                Log.w(TAG, "open()# close after failure failed", closeError);
+            }
+            throw error;
+        }
+        mOpened = true;
+    }
+
+    /**
+     * close all opened nodes. all nodes are tried even if some failed.
+     */
+    void close() throws IOException {
+        long start = System.nanoTime();
+        IOException error = run(false);
+        mCloseNs = System.nanoTime() - start;
+        mOpened = false;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    boolean isOpened() {
+        return mOpened;
+    }
+
+    /**
+     * run open or close of each node in its own thread, ordered by dependencies.
+     * @return first error, or null if succeeded
+     */
+    private IOException run(final boolean open) {
+        final IOException[] errors = new IOException[mEntries.size()];
+        for (Entry entry : mEntries) {
+            entry.done = new CountDownLatch(1);
+            if (open) {
+                entry.failed = false;
+            }
+        }
+
+        List<Thread> threads = new ArrayList<>(mEntries.size());
+        for (int i = 0; i < mEntries.size(); i++) {
+            final Entry entry = mEntries.get(i);
+            final int index = i;
+            Runnable runnable = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        errors[index] = open ? openEntry(entry) : closeEntry(entry);
+                    } finally {
+                        entry.done.countDown();
+                    }
+                }
+            };
+
+            if (mEntries.size() == 1) {
+                runnable.run(); // no need of thread
+            } else {
+                Thread thread = new Thread(runnable, (open ? "open-" : "close-") + entry.node.getClass().getSimpleName());
+                threads.add(thread);
+                thread.start();
+            }
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "run()# interrupted. wait for nodes anyway");
+                Thread.currentThread().interrupt();
+                // nodes could not be left half opened. keep waiting
+                while (thread.isAlive()) {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException ignored) {
+                        // keep waiting
+                    }
+                }
+            }
+        }
+
+        for (IOException error : errors) {
+            if (error != null) {
+                return error;
+            }
+        }
+        return null;
+    }
+
+    private IOException openEntry(Entry entry) {
+        if (entry.previous != null && (!await(entry.previous) || entry.previous.failed)) {
+            entry.failed = true;
+            return null; // error is reported by previous
+        }
+        for (Entry dependency : entry.dependencies) {
+            if (!await(dependency) || dependency.failed) {
+                entry.failed = true;
+                return null; // error is reported by dependency
+            }
+        }
+
+        long start = System.nanoTime();
+        IOException error = null;
+        try {
+            entry.node.open();
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException("open " + entry.node.getClass().getSimpleName() + " failed", e);
+        }
+        entry.openNs = System.nanoTime() - start;
+        entry.failed = error != null;
+
+        if (mCallback != null) {
+            mCallback.onOpened(entry.node, entry.openNs, error);
+        }
+        return error;
+    }
+
+    private IOException closeEntry(Entry entry) {
+        if (entry.previous != null) {
+            await(entry.previous);
+        }
+        for (Entry dependent : entry.dependents) {
+            await(dependent);
+        }
+        if (entry.failed || !entry.node.isOpened()) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        IOException error = null;
+        try {
+            entry.node.close();
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException("close " + entry.node.getClass().getSimpleName() + " failed", e);
+        }
+        entry.closeNs = System.nanoTime() - start;
+
+        if (mCallback != null) {
+            mCallback.onClosed(entry.node, entry.closeNs, error);
+        }
+        return error;
+    }
+
+    private static boolean await(Entry entry) {
+        try {
+            entry.done.await();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return open time of each node, in adding order
+     */
+    long[] getOpenTimes() {
+        long[] times = new long[mEntries.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = mEntries.get(i).openNs;
+        }
+        return times;
+    }
+
+    /**
+     * @return close time of each node, in adding order
+     */
+    long[] getCloseTimes() {
+        long[] times = new long[mEntries.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = mEntries.get(i).closeNs;
+        }
+        return times;
+    }
+
+    /**
+     * @return time to open all nodes
+     */
+    long getOpenTime() {
+        return mOpenNs;
+    }
+
+    /**
+     * @return time to close all nodes
+     */
+    long getCloseTime() {
+        return mCloseNs;
+    }
+}
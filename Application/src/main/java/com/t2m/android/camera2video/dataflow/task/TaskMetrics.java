@@ -0,0 +1,105 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.task;
+
+import com.t2m.android.camera2video.dataflow.node.NodeMetrics;
+import com.t2m.android.camera2video.dataflow.path.PathMetrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * TaskMetrics<br>
+ * Snapshot of metrics of all paths and nodes of a {@link DataFlowTask}
+ */
+public class TaskMetrics {
+    private final String mName;
+    private final long mTimestamp;
+    private final List<PathMetrics> mPaths;
+    private final List<NodeMetrics> mNodes;
+    private final long mOpenNs;
+    private final long[] mNodeOpenNs;
+    private final long mCloseNs;
+    private final long[] mNodeCloseNs;
+
+    TaskMetrics(String name, List<PathMetrics> paths, List<NodeMetrics> nodes,
+                long openNs, long[] nodeOpenNs, long closeNs, long[] nodeCloseNs) {
+        mName = name;
+        mTimestamp = System.nanoTime();
+        mPaths = Collections.unmodifiableList(paths);
+        mNodes = Collections.unmodifiableList(nodes);
+        mOpenNs = openNs;
+        mNodeOpenNs = nodeOpenNs;
+        mCloseNs = closeNs;
+        mNodeCloseNs = nodeCloseNs;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return time of snapshot by {@link System#nanoTime()}
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return path metrics in adding order
+     */
+    public List<PathMetrics> getPaths() {
+        return mPaths;
+    }
+
+    /**
+     * @return node metrics in adding order
+     */
+    public List<NodeMetrics> getNodes() {
+        return mNodes;
+    }
+
+    /**
+     * @return time to open all nodes, 0 if not opened yet
+     */
+    public long getOpenTimeNs() {
+        return mOpenNs;
+    }
+
+    /**
+     * @param index index of node in adding order
+     * @return time to open node, 0 if not opened yet
+     */
+    public long getNodeOpenTimeNs(int index) {
+        return mNodeOpenNs[index];
+    }
+
+    /**
+     * @return time to close all nodes, 0 if not closed yet
+     */
+    public long getCloseTimeNs() {
+        return mCloseNs;
+    }
+
+    /**
+     * @param index index of node in adding order
+     * @return time to close node, 0 if not closed yet
+     */
+    public long getNodeCloseTimeNs(int index) {
+        return mNodeCloseNs[index];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[" + mName + "] metrics, open: " + mOpenNs / 1000000
+                + "ms, close: " + mCloseNs / 1000000 + "ms");
+        for (PathMetrics path : mPaths) {
+            builder.append("\n  path ").append(path);
+        }
+        for (int i = 0; i < mNodes.size(); i++) {
+            builder.append("\n  node ").append(mNodes.get(i))
+                    .append(", open: ").append(mNodeOpenNs[i] / 1000000)
+                    .append("ms, close: ").append(mNodeCloseNs[i] / 1000000).append("ms");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,137 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.node.BufferedReader;
+import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
+import com.t2m.android.camera2video.dataflow.node.DirectReader;
+import com.t2m.android.camera2video.dataflow.node.DirectWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+
+/**
+ * Sink for benchmark. Consumes samples, could be rate limited to simulate a real time consumer.
+ */
+class BenchSinkNode extends DataNode {
+    private final ByteBuffer mBuffer;
+    private final long mIntervalNs;
+    private long mCount;
+    private long mBytes;
+    private long mStartTime;
+    private boolean mOpened = false;
+
+    private BufferedWriter mBufferedWriter = new BufferedWriter() {
+        @Override
+        public int writeBegin(Data data) {
+            int result = ready();
+            if (result == RESULT_OK) {
+                mBuffer.clear();
+                AudioData.setBuffer(data, mBuffer);
+                data.setInfo(0, 0, 0, 0);
+            }
+            return result;
+        }
+
+        @Override
+        public int writeEnd(Data data) {
+            return consume(data);
+        }
+    };
+
+    private DirectWriter mDirectWriter = new DirectWriter() {
+        @Override
+        public int write(Data data) {
+            int result = ready();
+            return result == RESULT_OK ? consume(data) : result;
+        }
+    };
+
+    /**
+     * @param bufferSize buffer size for buffered writer
+     * @param rate samples per second, 0 for unlimited
+     */
+    BenchSinkNode(int bufferSize, int rate) {
+        mBuffer = ByteBuffer.allocateDirect(bufferSize);
+        mIntervalNs = rate > 0 ? 1000000000L / rate : 0;
+    }
+
+    private int ready() {
+        if (!mOpened) {
+            return RESULT_NOT_OPEN;
+        }
+        if (mIntervalNs > 0 && System.nanoTime() - mStartTime < mCount * mIntervalNs) {
+            return RESULT_RETRY;
+        }
+        return RESULT_OK;
+    }
+
+    private int consume(Data data) {
+        ByteBuffer buffer = AudioData.getBuffer(data);
+        assert buffer != null;
+        if (data.getSize() > 0) {
+            DataFlowBenchmark.consume(buffer.get(data.getOffset()));
+        }
+        mCount ++;
+        mBytes += data.getSize();
+        return RESULT_OK;
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    long getBytes() {
+        return mBytes;
+    }
+
+    @Override
+    public DataNode open() throws IOException {
+        mCount = 0;
+        mBytes = 0;
+        mStartTime = System.nanoTime();
+        mOpened = true;
+        return this;
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mOpened;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOpened = false;
+    }
+
+    @Deprecated
+    @Override
+    public BufferedReader getBufferedReader() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Override
+    public BufferedWriter getBufferedWriter() {
+        return mBufferedWriter;
+    }
+
+    @Deprecated
+    @Override
+    public DirectReader getDirectReader() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Override
+    public DirectWriter getDirectWriter() {
+        return mDirectWriter;
+    }
+
+    @Override
+    protected DataPort[] getPorts() {
+        return new DataPort[] {mBufferedWriter, mDirectWriter};
+    }
+}
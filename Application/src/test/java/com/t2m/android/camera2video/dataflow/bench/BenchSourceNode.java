@@ -0,0 +1,150 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+import android.media.MediaCodec;
+
+import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.node.BufferedReader;
+import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
+import com.t2m.android.camera2video.dataflow.node.DirectReader;
+import com.t2m.android.camera2video.dataflow.node.DirectWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+
+/**
+ * Source for benchmark. Provides fixed count of samples with fixed size, followed by eos.
+ * Samples could be rate limited to simulate a real time producer.
+ */
+class BenchSourceNode extends DataNode {
+    private final int mSampleCount;
+    private final ByteBuffer mPayload;
+    private final long mIntervalNs;
+    private int mIndex;
+    private long mStartTime;
+    private boolean mOpened = false;
+
+    private BufferedReader mBufferedReader = new BufferedReader() {
+        @Override
+        public int readBegin(Data data) {
+            int result = next();
+            if (result == RESULT_OK) {
+                mPayload.clear();
+                AudioData.setBuffer(data, mPayload);
+                setInfo(data);
+            }
+            return result;
+        }
+
+        @Override
+        public int readEnd(Data data) {
+            return RESULT_OK;
+        }
+    };
+
+    private DirectReader mDirectReader = new DirectReader() {
+        @Override
+        public int read(Data data) {
+            int result = next();
+            if (result == RESULT_OK) {
+                ByteBuffer buffer = AudioData.getBuffer(data);
+                assert buffer != null;
+                mPayload.clear();
+                buffer.clear();
+                buffer.put(mPayload);
+                setInfo(data);
+            }
+            return result;
+        }
+
+        @Override
+        public int getMaxSampleSize() {
+            return mPayload.capacity();
+        }
+    };
+
+    /**
+     * @param sampleCount samples before eos
+     * @param sampleSize bytes per sample
+     * @param rate samples per second, 0 for unlimited
+     */
+    BenchSourceNode(int sampleCount, int sampleSize, int rate) {
+        mSampleCount = sampleCount;
+        mPayload = ByteBuffer.allocate(sampleSize);
+        mIntervalNs = rate > 0 ? 1000000000L / rate : 0;
+        for (int i = 0; i < sampleSize; i++) {
+            mPayload.put(i, (byte) i);
+        }
+    }
+
+    private int next() {
+        if (!mOpened) {
+            return RESULT_NOT_OPEN;
+        }
+        if (mIndex > mSampleCount) {
+            return RESULT_ERROR; // read after eos
+        }
+        if (mIntervalNs > 0 && System.nanoTime() - mStartTime < mIndex * mIntervalNs) {
+            return RESULT_RETRY;
+        }
+        return RESULT_OK;
+    }
+
+    private void setInfo(Data data) {
+        if (mIndex == mSampleCount) {
+            data.setInfo(0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        } else {
+            data.setInfo(0, mPayload.capacity(), mIndex * 1000L, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        }
+        mIndex ++;
+    }
+
+    @Override
+    public DataNode open() throws IOException {
+        mIndex = 0;
+        mStartTime = System.nanoTime();
+        mOpened = true;
+        return this;
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mOpened;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOpened = false;
+    }
+
+    @Override
+    public BufferedReader getBufferedReader() {
+        return mBufferedReader;
+    }
+
+    @Deprecated
+    @Override
+    public BufferedWriter getBufferedWriter() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Override
+    public DirectReader getDirectReader() {
+        return mDirectReader;
+    }
+
+    @Deprecated
+    @Override
+    public DirectWriter getDirectWriter() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Override
+    protected DataPort[] getPorts() {
+        return new DataPort[] {mBufferedReader, mDirectReader};
+    }
+}
@@ -0,0 +1,46 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+/**
+ * Benchmark<br>
+ * One measured operation. {@link #run()} is called repeatedly for warm up and measure iterations.
+ */
+abstract class Benchmark {
+    private final String mName;
+
+    Benchmark(String name) {
+        mName = name;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    /**
+     * @return unit of count returned by {@link #run()}
+     */
+    String getUnit() {
+        return "ops";
+    }
+
+    void setUp() throws Exception {
+        // do nothing
+    }
+
+    /**
+     * run one iteration
+     * @return operations done
+     */
+    abstract long run() throws Exception;
+
+    void tearDown() throws Exception {
+        // do nothing
+    }
+
+    /**
+     * @return extra result of last iteration, null if none
+     */
+    String getReport() {
+        return null;
+    }
+}
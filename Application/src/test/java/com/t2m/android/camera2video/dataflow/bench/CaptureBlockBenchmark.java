@@ -0,0 +1,79 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+import com.t2m.android.camera2video.dataflow.nodes.AudioRecordNode;
+import com.t2m.android.camera2video.dataflow.nodes.FakeCodecNode;
+import com.t2m.android.camera2video.dataflow.nodes.MemorySinkNode;
+import com.t2m.android.camera2video.dataflow.nodes.SyntheticPcmNode;
+import com.t2m.android.camera2video.dataflow.path.AudioDataPath;
+import com.t2m.android.camera2video.dataflow.task.DataFlowTask;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Capture to encoder to sink with small capture blocks (the former 100 frames per read) and AAC
+ * frame aligned blocks. Rate is pcm frames per second, report is reads and cpu time per second of
+ * audio, i.e. cost of capturing in real time.
+ */
+class CaptureBlockBenchmark extends Benchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int CODEC_BUFFER_COUNT = 4;
+    private static final long DURATION_MS = 600000;
+
+    private final int mBlockFrames;
+    private long mReads;
+    private long mCpuMs;
+
+    static void addTo(List<Benchmark> benchmarks) {
+        benchmarks.add(new CaptureBlockBenchmark("capture.block100", 100));
+        benchmarks.add(new CaptureBlockBenchmark("capture.block1024", AudioRecordNode.AAC_FRAME_SAMPLES));
+    }
+
+    private CaptureBlockBenchmark(String name, int blockFrames) {
+        super(name);
+        mBlockFrames = blockFrames;
+    }
+
+    @Override
+    String getUnit() {
+        return "frames";
+    }
+
+    @Override
+    long run() throws Exception {
+        SyntheticPcmNode pcm = new SyntheticPcmNode(SAMPLE_RATE, CHANNEL_COUNT, mBlockFrames, DURATION_MS)
+                .setSpeed(0);
+        FakeCodecNode codec = new FakeCodecNode(CODEC_BUFFER_COUNT, mBlockFrames * pcm.getFrameSize(), 0, 0, 0);
+        MemorySinkNode sink = new MemorySinkNode(0);
+
+        DataFlowTask task = new DataFlowTask(getName());
+        task.addNode(pcm).addNode(codec).addNode(sink)
+                .addPath(new AudioDataPath("pcm-codec", pcm.getDirectReader(), codec.getBufferedWriter()))
+                .addPath(new AudioDataPath("codec-sink", codec.getBufferedReader(), sink.getDirectWriter()));
+        long cpuStart = getProcessCpuTimeMs();
+        task.start();
+        task.waitForFinish();
+        mCpuMs = getProcessCpuTimeMs() - cpuStart;
+
+        if (task.getResult() != DataFlowTask.RESULT_OK || !sink.isEof()) {
+            throw new IllegalStateException(getName() + " failed. " + task.getMetrics());
+        }
+
+        mReads = task.getMetrics().getPaths().get(0).getSamples();
+        return pcm.getFrameCount();
+    }
+
+    private static long getProcessCpuTimeMs() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime() / 1000000;
+    }
+
+    @Override
+    String getReport() {
+        long seconds = DURATION_MS / 1000;
+        return "reads per audio second: " + mReads / seconds
+                + ", cpu per audio second: " + String.format("%.3f", (double) mCpuMs / seconds) + " ms";
+    }
+}
@@ -0,0 +1,55 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.Data;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * {@link AudioData#copyData(Data, Data)} from heap buffer (as AudioRecord) to direct buffer
+ * (as codec input), in bytes per second.
+ */
+class CopyDataBenchmark extends Benchmark {
+    private static final int BYTES_PER_ITERATION = 512 * 1024 * 1024;
+
+    private final int mSize;
+    private final Data mFrom = new Data();
+    private final Data mTo = new Data();
+
+    static void addTo(List<Benchmark> benchmarks) {
+        benchmarks.add(new CopyDataBenchmark(400)); // AudioRecordNode block: 100 frames of 16 bit stereo
+        benchmarks.add(new CopyDataBenchmark(4096)); // 1024 frames of 16 bit stereo
+        benchmarks.add(new CopyDataBenchmark(16384));
+        benchmarks.add(new CopyDataBenchmark(65536)); // encoded video frame
+    }
+
+    private CopyDataBenchmark(int size) {
+        super("copyData." + size);
+        mSize = size;
+    }
+
+    @Override
+    String getUnit() {
+        return "bytes";
+    }
+
+    @Override
+    void setUp() {
+        AudioData.setBuffer(mFrom, ByteBuffer.allocate(mSize));
+        AudioData.setBuffer(mTo, ByteBuffer.allocateDirect(mSize));
+        mFrom.setInfo(0, mSize, 0, 0);
+    }
+
+    @Override
+    long run() {
+        int count = BYTES_PER_ITERATION / mSize;
+        for (int i = 0; i < count; i++) {
+            mFrom.setPts(i);
+            AudioData.copyData(mFrom, mTo);
+        }
+        DataFlowBenchmark.consume(mTo.getPts());
+        return (long) count * mSize;
+    }
+}
@@ -0,0 +1,94 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * DataFlowBenchmark<br>
+ * Micro benchmarks of dataflow hot path, run against stand-in nodes so that no device API is involved.
+ * Each benchmark runs warm up iterations first, then measure iterations. Median rate is reported with
+ * spread of (max - min) / median, a spread above a few percent means result is not stable.<br>
+ * Part of unit test sources, so not in the app. Run on a jvm:
+ * <pre>
+ * ./gradlew :Application:benchmark [-Pfilter=name filter]
+ * </pre>
+ */
+public class DataFlowBenchmark {
+    private static final String TAG = DataFlowBenchmark.class.getSimpleName();
+
+    private static final int WARM_UP_ITERATIONS = 5;
+    private static final int MEASURE_ITERATIONS = 10;
+
+    private static volatile long sBlackhole = 0;
+
+    /**
+     * keep value alive, so that measured code is not eliminated
+     * @param value value
+     */
+    static void consume(long value) {
+        sBlackhole ^= value;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String filter = args.length > 0 ? args[0] : null;
+
+        List<Benchmark> benchmarks = new ArrayList<>();
+        PathBenchmark.addTo(benchmarks);
+        CopyDataBenchmark.addTo(benchmarks);
+        DataLookupBenchmark.addTo(benchmarks);
+        SampleMetaBenchmark.addTo(benchmarks);
+        RetryBenchmark.addTo(benchmarks);
+        HandoffBenchmark.addTo(benchmarks);
+        CaptureBlockBenchmark.addTo(benchmarks);
+        GraphBenchmark.addTo(benchmarks);
+        SchedulerBenchmark.addTo(benchmarks);
+
+        for (Benchmark benchmark : benchmarks) {
+            if (filter == null || benchmark.getName().contains(filter)) {
+                report(benchmark, measure(benchmark));
+            }
+        }
+    }
+
+    /**
+     * @param benchmark benchmark
+     * @return sorted rates of measure iterations, in unit per second
+     */
+    static double[] measure(Benchmark benchmark) throws Exception {
+        double[] rates = new double[MEASURE_ITERATIONS];
+        benchmark.setUp();
+        try {
+            for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+                benchmark.run();
+            }
+            for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+                long start = System.nanoTime();
+                long ops = benchmark.run();
+                long duration = System.nanoTime() - start;
+                rates[i] = ops * 1000000000.0 / Math.max(duration, 1);
+            }
+        } finally {
+            benchmark.tearDown();
+        }
+
+        Arrays.sort(rates);
+        return rates;
+    }
+
+    private static void report(Benchmark benchmark, double[] rates) {
+        double median = rates[rates.length / 2];
+        double spread = median > 0 ? (rates[rates.length - 1] - rates[0]) * 100 / median : 0;
+        String report = benchmark.getReport();
+        String line = String.format(Locale.US, "%-36s %14.1f %s/s  min %14.1f  max %14.1f  spread %5.1f%%%s",
+                benchmark.getName(), median, benchmark.getUnit(), rates[0], rates[rates.length - 1], spread,
+                report != null ? "  " + report : "");
+
+        System.out.println(line);
+        Log.i(TAG, line);
+    }
+}
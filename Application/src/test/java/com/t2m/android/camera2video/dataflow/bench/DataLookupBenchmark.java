@@ -0,0 +1,70 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.Data;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Cost of reading sample fields of {@link Data}: typed accessors, compatible key lookup, and extras.
+ */
+class DataLookupBenchmark extends Benchmark {
+    private static final int LOOKUP_TYPED = 0;
+    private static final int LOOKUP_KEY = 1;
+    private static final int LOOKUP_EXTRA = 2;
+
+    private static final int LOOKUPS_PER_ITERATION = 100000000;
+    private static final String KEY_EXTRA = "key-bench-extra";
+
+    private final int mLookup;
+    private final Data mData = new Data();
+
+    static void addTo(List<Benchmark> benchmarks) {
+        benchmarks.add(new DataLookupBenchmark("data.typed", LOOKUP_TYPED));
+        benchmarks.add(new DataLookupBenchmark("data.key", LOOKUP_KEY));
+        benchmarks.add(new DataLookupBenchmark("data.extra", LOOKUP_EXTRA));
+    }
+
+    private DataLookupBenchmark(String name, int lookup) {
+        super(name);
+        mLookup = lookup;
+    }
+
+    @Override
+    String getUnit() {
+        return "lookups";
+    }
+
+    @Override
+    void setUp() {
+        AudioData.setBuffer(mData, ByteBuffer.allocate(16));
+        mData.setInfo(0, 16, 0, 0);
+        mData.set(KEY_EXTRA, 16);
+    }
+
+    @Override
+    long run() {
+        long sum = 0;
+        switch (mLookup) {
+            case LOOKUP_TYPED:
+                for (int i = 0; i < LOOKUPS_PER_ITERATION; i++) {
+                    sum += mData.getBuffer().capacity();
+                }
+                break;
+            case LOOKUP_KEY:
+                for (int i = 0; i < LOOKUPS_PER_ITERATION; i++) {
+                    sum += mData.<ByteBuffer>get(AudioData.KEY_DATA_BYTE_BUFFER, null).capacity();
+                }
+                break;
+            default:
+                for (int i = 0; i < LOOKUPS_PER_ITERATION; i++) {
+                    sum += mData.get(KEY_EXTRA, 0);
+                }
+                break;
+        }
+        DataFlowBenchmark.consume(sum);
+        return LOOKUPS_PER_ITERATION;
+    }
+}
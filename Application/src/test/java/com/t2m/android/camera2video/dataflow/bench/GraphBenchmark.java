@@ -0,0 +1,65 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+import com.t2m.android.camera2video.dataflow.nodes.FakeCodecNode;
+import com.t2m.android.camera2video.dataflow.nodes.MemorySinkNode;
+import com.t2m.android.camera2video.dataflow.nodes.SyntheticPcmNode;
+import com.t2m.android.camera2video.dataflow.path.AudioDataPath;
+import com.t2m.android.camera2video.dataflow.task.DataFlowTask;
+
+import java.util.List;
+
+/**
+ * Full {@link DataFlowTask} of audio recording with stand-in nodes: pcm source, codec and sink.
+ * Rate is audio time processed per second, e.g. 50000 audio ms/s is 50x real time.
+ */
+class GraphBenchmark extends Benchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int BLOCK_FRAMES = 1024;
+    private static final int CODEC_BUFFER_COUNT = 4;
+
+    private final long mDurationMs;
+    private final double mSpeed;
+    private final long mLatencyUs;
+    private final long mJitterUs;
+
+    static void addTo(List<Benchmark> benchmarks) {
+        benchmarks.add(new GraphBenchmark("graph.unpaced", 60000, 0, 0, 0));
+        benchmarks.add(new GraphBenchmark("graph.20x-codec-latency", 10000, 20, 2000, 1000));
+    }
+
+    private GraphBenchmark(String name, long durationMs, double speed, long latencyUs, long jitterUs) {
+        super(name);
+        mDurationMs = durationMs;
+        mSpeed = speed;
+        mLatencyUs = latencyUs;
+        mJitterUs = jitterUs;
+    }
+
+    @Override
+    String getUnit() {
+        return "audio ms";
+    }
+
+    @Override
+    long run() throws Exception {
+        SyntheticPcmNode pcm = new SyntheticPcmNode(SAMPLE_RATE, CHANNEL_COUNT, BLOCK_FRAMES, mDurationMs)
+                .setSpeed(mSpeed);
+        FakeCodecNode codec = new FakeCodecNode(CODEC_BUFFER_COUNT, BLOCK_FRAMES * pcm.getFrameSize(),
+                mLatencyUs, mJitterUs, 0);
+        MemorySinkNode sink = new MemorySinkNode(0);
+
+        DataFlowTask task = new DataFlowTask(getName());
+        task.addNode(pcm).addNode(codec).addNode(sink)
+                .addPath(new AudioDataPath("pcm-codec", pcm.getBufferedReader(), codec.getBufferedWriter()))
+                .addPath(new AudioDataPath("codec-sink", codec.getBufferedReader(), sink.getDirectWriter()));
+        task.start();
+        task.waitForFinish();
+
+        if (task.getResult() != DataFlowTask.RESULT_OK || !sink.isEof()) {
+            throw new IllegalStateException(getName() + " failed. " + task.getMetrics());
+        }
+        return pcm.getFrameCount() * 1000 / SAMPLE_RATE;
+    }
+}
@@ -0,0 +1,74 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+import com.t2m.android.camera2video.dataflow.nodes.FakeCodecNode;
+import com.t2m.android.camera2video.dataflow.nodes.MemorySinkNode;
+import com.t2m.android.camera2video.dataflow.nodes.SyntheticPcmNode;
+import com.t2m.android.camera2video.dataflow.path.AudioDataPath;
+import com.t2m.android.camera2video.dataflow.task.DataFlowTask;
+
+import java.util.List;
+
+/**
+ * Capture to encoder hop, with pcm copied from source buffer into codec buffer (buffered reader),
+ * or captured directly into codec buffer (direct reader). Rate is pcm bytes per second, report is
+ * bytes per second copied by path, which is saved by handoff.
+ */
+class HandoffBenchmark extends Benchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int BLOCK_FRAMES = 1024;
+    private static final int CODEC_BUFFER_COUNT = 4;
+    private static final long DURATION_MS = 600000;
+
+    private final boolean mHandoff;
+    private long mCopiedBytes;
+    private long mTimeNs;
+
+    static void addTo(List<Benchmark> benchmarks) {
+        benchmarks.add(new HandoffBenchmark("handoff.copy", false));
+        benchmarks.add(new HandoffBenchmark("handoff.direct", true));
+    }
+
+    private HandoffBenchmark(String name, boolean handoff) {
+        super(name);
+        mHandoff = handoff;
+    }
+
+    @Override
+    String getUnit() {
+        return "bytes";
+    }
+
+    @Override
+    long run() throws Exception {
+        SyntheticPcmNode pcm = new SyntheticPcmNode(SAMPLE_RATE, CHANNEL_COUNT, BLOCK_FRAMES, DURATION_MS)
+                .setSpeed(0);
+        FakeCodecNode codec = new FakeCodecNode(CODEC_BUFFER_COUNT, BLOCK_FRAMES * pcm.getFrameSize(), 0, 0, 0);
+        MemorySinkNode sink = new MemorySinkNode(0);
+
+        DataFlowTask task = new DataFlowTask(getName());
+        task.addNode(pcm).addNode(codec).addNode(sink)
+                .addPath(mHandoff
+                        ? new AudioDataPath("pcm-codec", pcm.getDirectReader(), codec.getBufferedWriter())
+                        : new AudioDataPath("pcm-codec", pcm.getBufferedReader(), codec.getBufferedWriter()))
+                .addPath(new AudioDataPath("codec-sink", codec.getBufferedReader(), sink.getDirectWriter()));
+        long start = System.nanoTime();
+        task.start();
+        task.waitForFinish();
+        mTimeNs = System.nanoTime() - start;
+
+        if (task.getResult() != DataFlowTask.RESULT_OK || !sink.isEof()) {
+            throw new IllegalStateException(getName() + " failed. " + task.getMetrics());
+        }
+
+        long bytes = pcm.getFrameCount() * pcm.getFrameSize();
+        mCopiedBytes = mHandoff ? 0 : bytes;
+        return bytes;
+    }
+
+    @Override
+    String getReport() {
+        return "copied by path: " + (mCopiedBytes * 1000000000L / Math.max(mTimeNs, 1) / 1024 / 1024) + " MB/s";
+    }
+}
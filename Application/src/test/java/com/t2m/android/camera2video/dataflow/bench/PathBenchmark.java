@@ -0,0 +1,71 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+import com.t2m.android.camera2video.dataflow.path.AudioDataPath;
+import com.t2m.android.camera2video.dataflow.path.DataPath;
+
+import java.util.List;
+
+/**
+ * Throughput of each process mode of {@link DataPath}, in samples per second.
+ */
+class PathBenchmark extends Benchmark {
+    private static final int MODE_BUFFERED_2_BUFFERED = 0;
+    private static final int MODE_BUFFERED_2_DIRECT = 1;
+    private static final int MODE_DIRECT_2_BUFFERED = 2;
+    private static final int MODE_DIRECT_2_DIRECT = 3;
+
+    private static final int SAMPLE_COUNT = 200000;
+    private static final int SAMPLE_SIZE = 4096; // 1024 frames of 16 bit stereo
+
+    private final int mMode;
+
+    static void addTo(List<Benchmark> benchmarks) {
+        benchmarks.add(new PathBenchmark("path.buffered2buffered", MODE_BUFFERED_2_BUFFERED));
+        benchmarks.add(new PathBenchmark("path.buffered2direct", MODE_BUFFERED_2_DIRECT));
+        benchmarks.add(new PathBenchmark("path.direct2buffered", MODE_DIRECT_2_BUFFERED));
+        benchmarks.add(new PathBenchmark("path.direct2direct", MODE_DIRECT_2_DIRECT));
+    }
+
+    private PathBenchmark(String name, int mode) {
+        super(name);
+        mMode = mode;
+    }
+
+    @Override
+    String getUnit() {
+        return "samples";
+    }
+
+    @Override
+    long run() throws Exception {
+        BenchSourceNode source = new BenchSourceNode(SAMPLE_COUNT, SAMPLE_SIZE, 0);
+        BenchSinkNode sink = new BenchSinkNode(SAMPLE_SIZE, 0);
+        source.open();
+        sink.open();
+
+        DataPath path;
+        switch (mMode) {
+            case MODE_BUFFERED_2_BUFFERED:
+                path = new AudioDataPath(getName(), source.getBufferedReader(), sink.getBufferedWriter());
+                break;
+            case MODE_BUFFERED_2_DIRECT:
+                path = new AudioDataPath(getName(), source.getBufferedReader(), sink.getDirectWriter());
+                break;
+            case MODE_DIRECT_2_BUFFERED:
+                path = new AudioDataPath(getName(), source.getDirectReader(), sink.getBufferedWriter());
+                break;
+            default:
+                path = new AudioDataPath(getName(), source.getDirectReader(), sink.getDirectWriter());
+                break;
+        }
+        path.processSync();
+
+        source.close();
+        sink.close();
+        if (sink.getCount() != SAMPLE_COUNT + 1) {
+            throw new IllegalStateException(getName() + " lost samples: " + sink.getCount());
+        }
+        return SAMPLE_COUNT;
+    }
+}
@@ -0,0 +1,68 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+import com.t2m.android.camera2video.dataflow.path.AudioDataPath;
+import com.t2m.android.camera2video.dataflow.path.DataPath;
+import com.t2m.android.camera2video.dataflow.path.PathMetrics;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Retry sleep behaviour of polled ports, with a rate limited producer or consumer.
+ * Rate should track the limited side. Wakeups per sample and latency are reported,
+ * lower wakeups means less cpu wasted for polling.
+ */
+class RetryBenchmark extends Benchmark {
+    private static final int SAMPLE_SIZE = 4096;
+    private static final int DURATION_MS = 500;
+
+    private final int mProducerRate;
+    private final int mConsumerRate;
+    private String mReport;
+
+    static void addTo(List<Benchmark> benchmarks) {
+        benchmarks.add(new RetryBenchmark("retry.producer@100", 100, 0)); // audio block rate
+        benchmarks.add(new RetryBenchmark("retry.producer@2000", 2000, 0));
+        benchmarks.add(new RetryBenchmark("retry.consumer@100", 0, 100));
+        benchmarks.add(new RetryBenchmark("retry.consumer@2000", 0, 2000));
+    }
+
+    private RetryBenchmark(String name, int producerRate, int consumerRate) {
+        super(name);
+        mProducerRate = producerRate;
+        mConsumerRate = consumerRate;
+    }
+
+    @Override
+    String getUnit() {
+        return "samples";
+    }
+
+    @Override
+    long run() throws Exception {
+        int rate = mProducerRate > 0 ? mProducerRate : mConsumerRate;
+        int count = rate * DURATION_MS / 1000;
+        BenchSourceNode source = new BenchSourceNode(count, SAMPLE_SIZE, mProducerRate);
+        BenchSinkNode sink = new BenchSinkNode(SAMPLE_SIZE, mConsumerRate);
+        source.open();
+        sink.open();
+
+        DataPath path = new AudioDataPath(getName(), source.getBufferedReader(), sink.getDirectWriter());
+        path.processSync();
+
+        source.close();
+        sink.close();
+
+        PathMetrics metrics = path.getMetrics();
+        mReport = String.format(Locale.US, "wakeups/sample %.2f, retries %d/%d, latency p99 <%dus",
+                (double) path.getWakeupCount() / count, metrics.getReadRetries(), metrics.getWriteRetries(),
+                metrics.getLatency().getPercentileUs(99));
+        return count;
+    }
+
+    @Override
+    String getReport() {
+        return mReport;
+    }
+}
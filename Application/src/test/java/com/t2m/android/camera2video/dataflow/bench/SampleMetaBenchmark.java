@@ -0,0 +1,101 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.data.SampleMetaRing;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Scan of sample metadata as a batch stage does (bytes per track and smallest pts), with one
+ * {@link Data} object per sample, or parallel arrays of {@link SampleMetaRing}.
+ */
+class SampleMetaBenchmark extends Benchmark {
+    private static final int SAMPLE_COUNT = 64 * 1024;
+    private static final int SCANS_PER_ITERATION = 200;
+    private static final int TRACK_COUNT = 2;
+
+    private final boolean mRing;
+    private Data[] mData;
+    private SampleMetaRing mMetaRing;
+
+    static void addTo(List<Benchmark> benchmarks) {
+        benchmarks.add(new SampleMetaBenchmark("meta.objects", false));
+        benchmarks.add(new SampleMetaBenchmark("meta.ring", true));
+    }
+
+    private SampleMetaBenchmark(String name, boolean ring) {
+        super(name);
+        mRing = ring;
+    }
+
+    @Override
+    String getUnit() {
+        return "samples";
+    }
+
+    @Override
+    void setUp() {
+        // interleaved audio and video, pts slightly out of order as from two encoders
+        Random random = new Random(0);
+        mData = new Data[SAMPLE_COUNT];
+        mMetaRing = new SampleMetaRing(SAMPLE_COUNT);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            Data data = new Data();
+            data.setInfo(0, 100 + random.nextInt(4000), i * 10000L + random.nextInt(20000), 0);
+            data.setTrack(i % TRACK_COUNT);
+            mData[i] = data;
+            mMetaRing.add(data);
+        }
+    }
+
+    @Override
+    long run() {
+        long sum = 0;
+        for (int n = 0; n < SCANS_PER_ITERATION; n++) {
+            if (mRing) {
+                for (int track = 0; track < TRACK_COUNT; track++) {
+                    sum += mMetaRing.getBytes(track);
+                }
+                sum += mMetaRing.findMinPts();
+            } else {
+                for (int track = 0; track < TRACK_COUNT; track++) {
+                    sum += getBytes(track);
+                }
+                sum += findMinPts();
+            }
+        }
+        DataFlowBenchmark.consume(sum);
+        return (long) SAMPLE_COUNT * SCANS_PER_ITERATION;
+    }
+
+    private long getBytes(int track) {
+        long bytes = 0;
+        for (Data data : mData) {
+            if (data.getTrack() == track) {
+                bytes += data.getSize();
+            }
+        }
+        return bytes;
+    }
+
+    private long findMinPts() {
+        long found = -1;
+        long minPts = Long.MAX_VALUE;
+        for (int i = 0; i < mData.length; i++) {
+            long pts = mData[i].getPts();
+            if (pts < minPts) {
+                minPts = pts;
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    void tearDown() {
+        mData = null;
+        mMetaRing = null;
+    }
+}
@@ -0,0 +1,98 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.bench;
+
+import com.t2m.android.camera2video.dataflow.nodes.FakeCodecNode;
+import com.t2m.android.camera2video.dataflow.nodes.MemorySinkNode;
+import com.t2m.android.camera2video.dataflow.nodes.SyntheticPcmNode;
+import com.t2m.android.camera2video.dataflow.path.AudioDataPath;
+import com.t2m.android.camera2video.dataflow.path.PathScheduler;
+import com.t2m.android.camera2video.dataflow.path.ThreadPerPathScheduler;
+import com.t2m.android.camera2video.dataflow.path.WorkerPoolScheduler;
+import com.t2m.android.camera2video.dataflow.task.DataFlowTask;
+
+import java.util.List;
+
+/**
+ * Several recording graphs sharing one {@link PathScheduler}, paced at real time multiple with codec
+ * latency, so that paths wait for each other. Rate is audio time processed per second, report is
+ * threads created and context switches of them per iteration.
+ */
+class SchedulerBenchmark extends Benchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int BLOCK_FRAMES = 1024;
+    private static final int CODEC_BUFFER_COUNT = 4;
+    private static final long DURATION_MS = 10000;
+    private static final double SPEED = 20;
+    private static final long CODEC_LATENCY_US = 2000;
+    private static final long CODEC_JITTER_US = 1000;
+    private static final int GRAPH_COUNT = 4;
+    private static final int WORKER_COUNT = 2;
+
+    private final boolean mPooled;
+    private int mThreadCount;
+    private long mContextSwitches;
+
+    static void addTo(List<Benchmark> benchmarks) {
+        benchmarks.add(new SchedulerBenchmark("scheduler.thread-per-path", false));
+        benchmarks.add(new SchedulerBenchmark("scheduler.worker-pool", true));
+    }
+
+    private SchedulerBenchmark(String name, boolean pooled) {
+        super(name);
+        mPooled = pooled;
+    }
+
+    @Override
+    String getUnit() {
+        return "audio ms";
+    }
+
+    @Override
+    long run() throws Exception {
+        PathScheduler scheduler = mPooled
+                ? new WorkerPoolScheduler(getName(), WORKER_COUNT) : new ThreadPerPathScheduler();
+        try {
+            SyntheticPcmNode[] pcms = new SyntheticPcmNode[GRAPH_COUNT];
+            MemorySinkNode[] sinks = new MemorySinkNode[GRAPH_COUNT];
+            DataFlowTask[] tasks = new DataFlowTask[GRAPH_COUNT];
+            for (int i = 0; i < GRAPH_COUNT; i++) {
+                pcms[i] = new SyntheticPcmNode(SAMPLE_RATE, CHANNEL_COUNT, BLOCK_FRAMES, DURATION_MS).setSpeed(SPEED);
+                FakeCodecNode codec = new FakeCodecNode(CODEC_BUFFER_COUNT, BLOCK_FRAMES * pcms[i].getFrameSize(),
+                        CODEC_LATENCY_US, CODEC_JITTER_US, i);
+                sinks[i] = new MemorySinkNode(0);
+
+                tasks[i] = new DataFlowTask(getName() + "-" + i);
+                tasks[i].addNode(pcms[i]).addNode(codec).addNode(sinks[i])
+                        .addPath(new AudioDataPath("pcm-codec-" + i, pcms[i].getBufferedReader(), codec.getBufferedWriter()))
+                        .addPath(new AudioDataPath("codec-sink-" + i, codec.getBufferedReader(), sinks[i].getDirectWriter()))
+                        .setScheduler(scheduler);
+            }
+
+            for (DataFlowTask task : tasks) {
+                task.start();
+            }
+
+            long audioMs = 0;
+            for (int i = 0; i < GRAPH_COUNT; i++) {
+                tasks[i].waitForFinish();
+                if (tasks[i].getResult() != DataFlowTask.RESULT_OK || !sinks[i].isEof()) {
+                    throw new IllegalStateException(getName() + " failed. " + tasks[i].getMetrics());
+                }
+                audioMs += pcms[i].getFrameCount() * 1000 / SAMPLE_RATE;
+            }
+
+            // read before shutdown, while worker threads are still alive
+            mThreadCount = scheduler.getThreadCount();
+            mContextSwitches = scheduler.getContextSwitches();
+            return audioMs;
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Override
+    String getReport() {
+        return "threads: " + mThreadCount + ", context switches: " + mContextSwitches;
+    }
+}
@@ -0,0 +1,52 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.data;
+
+import android.media.MediaCodec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Buffer info by key behaves as values of the HashMap Data used to be.
+ */
+public class DataTest {
+    @Test
+    public void bufferInfoIsLive() {
+        Data data = new Data();
+        data.setInfo(1, 10, 100, 0);
+
+        MediaCodec.BufferInfo info = AudioData.getBufferInfo(data);
+        assertEquals(10, info.size);
+        info.size = 11;
+        assertEquals(11, data.getSize());
+        data.setPts(101);
+        assertEquals(101, info.presentationTimeUs);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void replacedBufferInfoIsNotChanged() {
+        Data data = new Data();
+        MediaCodec.BufferInfo first = info(1, 10, 100);
+        MediaCodec.BufferInfo second = info(2, 20, 200);
+
+        data.put(AudioData.KEY_DATA_BUFFER_INFO, first);
+        data.put(AudioData.KEY_DATA_BUFFER_INFO, second);
+        assertTrue("replaced info changed", first.offset == 1 && first.size == 10 && first.presentationTimeUs == 100);
+        assertEquals(20, data.getSize());
+
+        data.remove(AudioData.KEY_DATA_BUFFER_INFO);
+        assertTrue("removed info changed", second.offset == 2 && second.size == 20 && second.presentationTimeUs == 200);
+        assertEquals(0, data.getSize());
+        data.setSize(30);
+        assertEquals(20, second.size);
+    }
+
+    private static MediaCodec.BufferInfo info(int offset, int size, long pts) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.set(offset, size, pts, 0);
+        return info;
+    }
+}
@@ -0,0 +1,302 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.nodes;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.node.BufferedReader;
+import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
+import com.t2m.android.camera2video.dataflow.node.DirectReader;
+import com.t2m.android.camera2video.dataflow.node.DirectWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.Random;
+
+/**
+ * Fake Codec Node<br>
+ * Stand-in of {@link CodecNode} without device API. Samples written are passed through unchanged,
+ * and could be read after latency (plus random jitter). Like a real codec, only a fixed count of
+ * buffers is available, so writer retries when all buffers are in use.<br>
+ * If config format is set, a config sample is provided before the first sample.
+ */
+public class FakeCodecNode extends DataNode {
+    private final int mBufferCount;
+    private final int mBufferSize;
+    private final long mLatencyNs;
+    private final long mJitterNs;
+    private final Random mRandom;
+    private MediaFormat mConfigFormat = null;
+
+    private final Object mLock = new Object();
+    private Data[] mBuffers;
+    private long[] mDueTime;
+    private int[] mFree; // stack of free buffer index
+    private int mFreeCount = 0;
+    private int[] mPending; // fifo of written buffer index
+    private int mPendingHead = 0;
+    private int mPendingCount = 0;
+    private long mLastDueTime = 0;
+    private boolean mConfigPending = false;
+    private final Data mConfig = new Data();
+
+    private BufferedReader mBufferedReader = new BufferedReader() {
+        @Override
+        public int readBegin(Data data) {
+            return FakeCodecNode.this.readBegin(data);
+        }
+
+        @Override
+        public int readEnd(Data data) {
+            return FakeCodecNode.this.readEnd(data);
+        }
+
+        @Override
+        public boolean canSignalReady() {
+            // output is ready on write only if no delay
+            return mLatencyNs == 0 && mJitterNs == 0;
+        }
+    };
+
+    private BufferedWriter mBufferedWriter = new BufferedWriter() {
+        @Override
+        public int writeBegin(Data data) {
+            return FakeCodecNode.this.writeBegin(data);
+        }
+
+        @Override
+        public int writeEnd(Data data) {
+            return FakeCodecNode.this.writeEnd(data);
+        }
+
+        @Override
+        public boolean canSignalReady() {
+            return true;
+        }
+    };
+
+    /**
+     * @param bufferCount buffers shared by input and output
+     * @param bufferSize size of each buffer
+     * @param latencyUs time from write to read available
+     * @param jitterUs max random time added to latency. output order is kept.
+     * @param seed seed for jitter, so that a run could be repeated
+     */
+    public FakeCodecNode(int bufferCount, int bufferSize, long latencyUs, long jitterUs, long seed) {
+        if (bufferCount <= 0 || bufferSize <= 0 || latencyUs < 0 || jitterUs < 0) {
+            throw new IllegalArgumentException("invalid parameter. bufferCount: " + bufferCount
+                    + ", bufferSize: " + bufferSize + ", latencyUs: " + latencyUs + ", jitterUs: " + jitterUs);
+        }
+
+        mBufferCount = bufferCount;
+        mBufferSize = bufferSize;
+        mLatencyNs = latencyUs * 1000;
+        mJitterNs = jitterUs * 1000;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * provide a config sample with format before first sample. Should be called before {@link #open()}.
+     * @param format format, null for no config sample
+     * @return this
+     */
+    public FakeCodecNode setConfigFormat(MediaFormat format) {
+        if (isOpened()) {
+            throw new IllegalStateException("Should not change config after opened");
+        }
+
+        mConfigFormat = format;
+        return this;
+    }
+
+    @Override
+    public DataNode open() throws IOException {
+        synchronized (mLock) {
+            if (isOpened()) {
+                return this; // already opened
+            }
+
+            mBuffers = new Data[mBufferCount];
+            mDueTime = new long[mBufferCount];
+            mFree = new int[mBufferCount];
+            mPending = new int[mBufferCount];
+            for (int i = 0; i < mBufferCount; i++) {
+                mBuffers[i] = new Data();
+                AudioData.setBuffer(mBuffers[i], ByteBuffer.allocateDirect(mBufferSize));
+                mFree[i] = mBufferCount - 1 - i;
+            }
+            mFreeCount = mBufferCount;
+            mPendingHead = 0;
+            mPendingCount = 0;
+            mLastDueTime = 0;
+
+            mConfigPending = mConfigFormat != null;
+            if (mConfigPending) {
+                AudioData.setBuffer(mConfig, ByteBuffer.allocate(0));
+                mConfig.setInfo(0, 0, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+                mConfig.setConfigFormat(mConfigFormat);
+            }
+            return this;
+        }
+    }
+
+    @Override
+    public boolean isOpened() {
+        synchronized (mLock) {
+            return mBuffers != null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (mLock) {
+            mBuffers = null;
+        }
+    }
+
+    private int writeBegin(Data data) {
+        synchronized (mLock) {
+            if (mBuffers == null) {
+                return RESULT_NOT_OPEN;
+            }
+            if (mFreeCount == 0) {
+                return RESULT_RETRY;
+            }
+
+            int index = mFree[--mFreeCount];
+            ByteBuffer buffer = AudioData.getBuffer(mBuffers[index]);
+            assert buffer != null;
+            buffer.clear();
+            AudioData.setBuffer(data, buffer);
+            data.setInfo(0, 0, 0, 0);
+            data.setCodecIndex(index);
+            return RESULT_OK;
+        }
+    }
+
+    private int writeEnd(Data data) {
+        synchronized (mLock) {
+            if (mBuffers == null) {
+                return RESULT_NOT_OPEN;
+            }
+
+            int index = data.getCodecIndex();
+            if (index < 0) {
+                return RESULT_ERROR;
+            }
+            if (AudioData.isConfig(data)) {
+                mFree[mFreeCount++] = index; // we do not accept config, as CodecNode
+                return RESULT_OK;
+            }
+
+            // keep output order, jitter only delays
+            long due = System.nanoTime() + mLatencyNs;
+            if (mJitterNs > 0) {
+                due += (long) (mRandom.nextDouble() * mJitterNs);
+            }
+            mLastDueTime = Math.max(due, mLastDueTime);
+
+            mBuffers[index].setInfo(data);
+            mDueTime[index] = mLastDueTime;
+            mPending[(mPendingHead + mPendingCount) % mBufferCount] = index;
+            mPendingCount ++;
+        }
+
+        mBufferedReader.notifyReady();
+        return RESULT_OK;
+    }
+
+    private int readBegin(Data data) {
+        synchronized (mLock) {
+            if (mBuffers == null) {
+                return RESULT_NOT_OPEN;
+            }
+
+            if (mConfigPending) {
+                mConfigPending = false;
+                AudioData.setBuffer(data, AudioData.getBuffer(mConfig));
+                data.setInfo(mConfig);
+                data.setConfigFormat(mConfigFormat);
+                data.setCodecIndex(Data.NO_INDEX);
+                return RESULT_OK;
+            }
+
+            if (mPendingCount == 0) {
+                return RESULT_RETRY;
+            }
+            int index = mPending[mPendingHead];
+            if (System.nanoTime() < mDueTime[index]) {
+                return RESULT_RETRY;
+            }
+            mPendingHead = (mPendingHead + 1) % mBufferCount;
+            mPendingCount --;
+
+            Data buff = mBuffers[index];
+            ByteBuffer buffer = AudioData.getBuffer(buff);
+            assert buffer != null;
+            buffer.clear();
+            buffer.position(buff.getOffset());
+            AudioData.setBuffer(data, buffer);
+            data.setInfo(buff);
+            data.setCodecIndex(index); // format is set on config sample only, as CodecNode
+            return RESULT_OK;
+        }
+    }
+
+    private int readEnd(Data data) {
+        synchronized (mLock) {
+            if (mBuffers == null) {
+                return RESULT_NOT_OPEN;
+            }
+
+            int index = data.getCodecIndex();
+            if (index >= 0) {
+                mFree[mFreeCount++] = index;
+            }
+        }
+
+        if (data.getCodecIndex() >= 0) {
+            mBufferedWriter.notifyReady();
+        }
+        return RESULT_OK;
+    }
+
+    @Override
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPendingCount;
+        }
+    }
+
+    @Override
+    public BufferedReader getBufferedReader() {
+        return mBufferedReader;
+    }
+
+    @Override
+    public BufferedWriter getBufferedWriter() {
+        return mBufferedWriter;
+    }
+
+    @Deprecated
+    @Override
+    public DirectReader getDirectReader() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Deprecated
+    @Override
+    public DirectWriter getDirectWriter() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Override
+    protected DataPort[] getPorts() {
+        return new DataPort[] {mBufferedReader, mBufferedWriter};
+    }
+}
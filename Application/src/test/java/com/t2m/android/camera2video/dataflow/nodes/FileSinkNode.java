@@ -0,0 +1,133 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.nodes;
+
+import android.util.Log;
+
+import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.node.BufferedReader;
+import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
+import com.t2m.android.camera2video.dataflow.node.DirectReader;
+import com.t2m.android.camera2video.dataflow.node.DirectWriter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidParameterException;
+
+/**
+ * File Sink Node<br>
+ * Stand-in of {@link MediaMuxerNode} without device API. Payload of samples is appended to a raw file.
+ * Config samples are skipped.
+ */
+public class FileSinkNode extends DataNode {
+    private static final String TAG = FileSinkNode.class.getSimpleName();
+
+    private final String mPath;
+    private FileOutputStream mStream;
+    private FileChannel mChannel;
+    private volatile long mBytes = 0;
+
+    private DirectWriter mDirectWriter = new DirectWriter() {
+        @Override
+        public int write(Data data) {
+            return FileSinkNode.this.write(data);
+        }
+    };
+
+    public FileSinkNode(String path) {
+        mPath = path;
+    }
+
+    private int write(Data data) {
+        if (!isOpened()) {
+            return RESULT_NOT_OPEN;
+        }
+        if (AudioData.isConfig(data) || data.getSize() <= 0) {
+            return RESULT_OK;
+        }
+
+        ByteBuffer buffer = AudioData.getBuffer(data);
+        assert buffer != null;
+        int position = buffer.position();
+        int limit = buffer.limit();
+        try {
+            buffer.limit(buffer.capacity());
+            buffer.position(data.getOffset());
+            buffer.limit(data.getOffset() + data.getSize());
+            while (buffer.hasRemaining()) {
+                mChannel.write(buffer);
+            }
+            mBytes += data.getSize();
+            return RESULT_OK;
+        } catch (IOException e) {
+            Log.e(TAG, "write()# failed", e);
+            return RESULT_ERROR;
+        } finally {
+            // buffer may be shared with other writers
+            buffer.limit(limit);
+            buffer.position(position);
+        }
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    @Override
+    public DataNode open() throws IOException {
+        if (isOpened()) {
+            return this; // already opened
+        }
+
+        mBytes = 0;
+        mStream = new FileOutputStream(mPath);
+        mChannel = mStream.getChannel();
+        return this;
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mChannel != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mStream != null) {
+            mStream.close();
+            mStream = null;
+            mChannel = null;
+        }
+    }
+
+    @Deprecated
+    @Override
+    public BufferedReader getBufferedReader() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Deprecated
+    @Override
+    public BufferedWriter getBufferedWriter() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Deprecated
+    @Override
+    public DirectReader getDirectReader() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Override
+    public DirectWriter getDirectWriter() {
+        return mDirectWriter;
+    }
+
+    @Override
+    protected DataPort[] getPorts() {
+        return new DataPort[] {mDirectWriter};
+    }
+}
@@ -0,0 +1,191 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.nodes;
+
+import android.util.Log;
+
+import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.node.BufferedReader;
+import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
+import com.t2m.android.camera2video.dataflow.node.DirectReader;
+import com.t2m.android.camera2video.dataflow.node.DirectWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * Memory Sink Node<br>
+ * Stand-in of {@link MediaMuxerNode} without device API. Counts samples written and keeps payload
+ * in memory up to a limit, so that output of a graph could be checked.
+ */
+public class MemorySinkNode extends DataNode {
+    private static final String TAG = MemorySinkNode.class.getSimpleName();
+
+    private final byte[] mContent;
+    private volatile int mContentSize = 0;
+    private volatile long mSampleCount = 0;
+    private volatile long mConfigCount = 0;
+    private volatile long mBytes = 0;
+    private volatile long mPtsRegressions = 0;
+    private volatile long mNoFormatCount = 0;
+    private volatile boolean mEof = false;
+    private long mLastPts = Long.MIN_VALUE;
+    private volatile boolean mOpened = false;
+
+    private DirectWriter mDirectWriter = new DirectWriter() {
+        @Override
+        public int write(Data data) {
+            return MemorySinkNode.this.write(data);
+        }
+    };
+
+    /**
+     * @param maxContentBytes max bytes of payload to keep, 0 to only count
+     */
+    public MemorySinkNode(int maxContentBytes) {
+        mContent = new byte[maxContentBytes];
+    }
+
+    private int write(Data data) {
+        if (!mOpened) {
+            return RESULT_NOT_OPEN;
+        }
+
+        if (AudioData.isConfig(data)) {
+            mConfigCount ++;
+            return RESULT_OK;
+        }
+        if (AudioData.isEof(data)) {
+            mEof = true;
+        }
+
+        int size = data.getSize();
+        if (size > 0) {
+            ByteBuffer buffer = AudioData.getBuffer(data);
+            assert buffer != null;
+
+            // keep payload, buffer position is not changed
+            int count = Math.min(size, mContent.length - mContentSize);
+            for (int i = 0; i < count; i++) {
+                mContent[mContentSize + i] = buffer.get(data.getOffset() + i);
+            }
+            mContentSize += count;
+
+            if (data.getPts() < mLastPts) {
+                mPtsRegressions ++;
+                Log.w(TAG, "write()# pts regression: " + data.getPts() + " < " + mLastPts);
+            }
+            mLastPts = data.getPts();
+        }
+
+        if (data.getConfigFormat() == null) {
+            mNoFormatCount ++;
+        }
+        mSampleCount ++;
+        mBytes += size;
+        return RESULT_OK;
+    }
+
+    /**
+     * @return samples written, excluding config
+     */
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    public long getConfigCount() {
+        return mConfigCount;
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return samples with pts less than previous one
+     */
+    public long getPtsRegressions() {
+        return mPtsRegressions;
+    }
+
+    /**
+     * @return samples without config format, which {@link MediaMuxerNode} could not route
+     */
+    public long getNoFormatCount() {
+        return mNoFormatCount;
+    }
+
+    /**
+     * @return whether eos is written
+     */
+    public boolean isEof() {
+        return mEof;
+    }
+
+    /**
+     * @return copy of payload kept
+     */
+    public byte[] getContent() {
+        return Arrays.copyOf(mContent, mContentSize);
+    }
+
+    @Override
+    public DataNode open() throws IOException {
+        if (isOpened()) {
+            return this; // already opened
+        }
+
+        mContentSize = 0;
+        mSampleCount = 0;
+        mConfigCount = 0;
+        mBytes = 0;
+        mPtsRegressions = 0;
+        mNoFormatCount = 0;
+        mEof = false;
+        mLastPts = Long.MIN_VALUE;
+        mOpened = true;
+        return this;
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mOpened;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOpened = false;
+    }
+
+    @Deprecated
+    @Override
+    public BufferedReader getBufferedReader() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Deprecated
+    @Override
+    public BufferedWriter getBufferedWriter() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Deprecated
+    @Override
+    public DirectReader getDirectReader() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Override
+    public DirectWriter getDirectWriter() {
+        return mDirectWriter;
+    }
+
+    @Override
+    protected DataPort[] getPorts() {
+        return new DataPort[] {mDirectWriter};
+    }
+}
@@ -0,0 +1,115 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.nodes;
+
+import android.media.MediaCodec;
+
+import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Overflow of {@link QueueNode} never drops config or eos.
+ */
+public class QueueNodeTest {
+    private static final int SLOT_SIZE = 64;
+    private static final int SAMPLE_SIZE = 16;
+
+    @Test
+    public void dropOldestKeepsConfig() throws Exception {
+        QueueNode queue = new QueueNode(2, SLOT_SIZE, QueueNode.OVERFLOW_DROP_OLDEST);
+        queue.open();
+        try {
+            // consumer stalls at start up, queue is full with config at head
+            assertEquals(DataNode.RESULT_OK, queue.getDirectWriter().write(sample(0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG)));
+            for (int i = 1; i <= 4; i++) {
+                assertEquals(DataNode.RESULT_OK, queue.getDirectWriter().write(sample(i, 0)));
+            }
+
+            assertEquals(3, queue.getDroppedCount());
+            Data data = new Data();
+            assertEquals(DataNode.RESULT_OK, queue.getBufferedReader().readBegin(data));
+            assertTrue("config dropped", AudioData.isConfig(data));
+            queue.getBufferedReader().readEnd(data);
+            assertEquals(DataNode.RESULT_OK, queue.getBufferedReader().readBegin(data));
+            assertEquals(1, data.getPts());
+            queue.getBufferedReader().readEnd(data);
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void dropOldestDropsSampleAfterRead() throws Exception {
+        QueueNode queue = new QueueNode(2, SLOT_SIZE, QueueNode.OVERFLOW_DROP_OLDEST);
+        queue.open();
+        try {
+            for (int i = 0; i < 4; i++) {
+                assertEquals(DataNode.RESULT_OK, queue.getDirectWriter().write(sample(i, 0)));
+            }
+
+            assertEquals(2, queue.getDroppedCount());
+            Data data = new Data();
+            assertEquals(DataNode.RESULT_OK, queue.getBufferedReader().readBegin(data));
+            assertEquals(2, data.getPts());
+            queue.getBufferedReader().readEnd(data);
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void bufferedEosWaitsForConsumer() throws Exception {
+        final QueueNode queue = new QueueNode(1, SLOT_SIZE, QueueNode.OVERFLOW_DROP_NEWEST);
+        queue.open();
+        try {
+            assertEquals(DataNode.RESULT_OK, queue.getDirectWriter().write(sample(0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG)));
+
+            // consumer reads the full queue later. config could not be replaced by eos
+            final Data read = new Data();
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    queue.getBufferedReader().readBegin(read);
+                    queue.getBufferedReader().readEnd(read);
+                }
+            });
+            consumer.start();
+
+            Data data = new Data();
+            long start = System.nanoTime();
+            assertEquals(DataNode.RESULT_OK, queue.getBufferedWriter().writeBegin(data));
+            data.setInfo(0, 0, 1, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            assertEquals(DataNode.RESULT_OK, queue.getBufferedWriter().writeEnd(data));
+            long waitMs = (System.nanoTime() - start) / 1000000;
+            consumer.join();
+
+            assertTrue("config not read", AudioData.isConfig(read));
+            assertTrue("waited " + waitMs + "ms", waitMs < QueueNode.ESSENTIAL_WAIT_MS);
+            assertEquals(0, queue.getDroppedCount());
+            assertEquals(DataNode.RESULT_OK, queue.getBufferedReader().readBegin(data));
+            assertTrue("eos dropped", AudioData.isEof(data));
+            queue.getBufferedReader().readEnd(data);
+        } finally {
+            queue.close();
+        }
+    }
+
+    private static Data sample(long pts, int flags) {
+        Data data = new Data();
+        AudioData.setBuffer(data, ByteBuffer.allocate(SAMPLE_SIZE));
+        data.setInfo(0, (flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 ? 0 : SAMPLE_SIZE, pts, flags);
+        return data;
+    }
+}
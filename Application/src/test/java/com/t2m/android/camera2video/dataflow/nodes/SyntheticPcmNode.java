@@ -0,0 +1,269 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.nodes;
+
+import android.media.MediaCodec;
+import android.util.Log;
+
+import com.t2m.android.camera2video.dataflow.data.AudioData;
+import com.t2m.android.camera2video.dataflow.data.Data;
+import com.t2m.android.camera2video.dataflow.node.BufferedReader;
+import com.t2m.android.camera2video.dataflow.node.BufferedWriter;
+import com.t2m.android.camera2video.dataflow.node.DataNode;
+import com.t2m.android.camera2video.dataflow.node.DataPort;
+import com.t2m.android.camera2video.dataflow.node.DirectReader;
+import com.t2m.android.camera2video.dataflow.node.DirectWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.ArrayDeque;
+
+/**
+ * Synthetic PCM Node<br>
+ * Stand-in of {@link AudioRecordNode} without device API: provides 16 bit PCM of a 100Hz tone in
+ * blocks, paced at real time, a multiple of real time, or as fast as possible.<br>
+ * Eos is provided after duration or {@link #stop()}, as {@link AudioRecordNode}.
+ */
+public class SyntheticPcmNode extends DataNode {
+    private static final String TAG = SyntheticPcmNode.class.getSimpleName();
+
+    private static final int BYTES_PER_SAMPLE = 2;
+    private static final int TONE_FREQUENCY = 100;
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mBlockFrames;
+    private final long mDurationFrames;
+    private final byte[] mTone; // one period of tone, all channels
+    private final ArrayDeque<ByteBuffer> mFreeBuffs = new ArrayDeque<>();
+    private double mSpeed = 1.0;
+
+    private volatile boolean mOpened = false;
+    private volatile boolean mStopped = false;
+    private boolean mEof = false;
+    private long mFrameCount = 0;
+    private int mTonePos = 0;
+    private long mStartTime = 0;
+
+    private BufferedReader mBufferedReader = new BufferedReader() {
+        @Override
+        public int readBegin(Data data) {
+            int result = checkReady();
+            if (result != RESULT_OK) {
+                return result;
+            }
+
+            ByteBuffer buffer;
+            synchronized (mFreeBuffs) {
+                buffer = mFreeBuffs.poll();
+            }
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(mBlockFrames * getFrameSize());
+            }
+            AudioData.setBuffer(data, buffer);
+            fill(data);
+            return RESULT_OK;
+        }
+
+        @Override
+        public int readEnd(Data data) {
+            ByteBuffer buffer = AudioData.getBuffer(data);
+            if (buffer != null) {
+                synchronized (mFreeBuffs) {
+                    mFreeBuffs.offer(buffer);
+                }
+            }
+            return RESULT_OK;
+        }
+    };
+
+    private DirectReader mDirectReader = new DirectReader() {
+        @Override
+        public int read(Data data) {
+            int result = checkReady();
+            if (result != RESULT_OK) {
+                return result;
+            }
+
+            ByteBuffer buffer = AudioData.getBuffer(data);
+            if (buffer == null || buffer.capacity() < mBlockFrames * getFrameSize()) {
+                Log.e(TAG, "read()# buffer too small: " + buffer);
+                return RESULT_ERROR;
+            }
+            fill(data);
+            return RESULT_OK;
+        }
+
+        @Override
+        public int getMaxSampleSize() {
+            return mBlockFrames * getFrameSize();
+        }
+    };
+
+    /**
+     * @param sampleRate sample rate
+     * @param channelCount channel count
+     * @param blockFrames frames per sample
+     * @param durationMs duration before eos, 0 to run until {@link #stop()}
+     */
+    public SyntheticPcmNode(int sampleRate, int channelCount, int blockFrames, long durationMs) {
+        if (sampleRate <= 0 || channelCount <= 0 || blockFrames <= 0 || durationMs < 0) {
+            throw new IllegalArgumentException("invalid parameter. sampleRate: " + sampleRate
+                    + ", channelCount: " + channelCount + ", blockFrames: " + blockFrames + ", durationMs: " + durationMs);
+        }
+
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mBlockFrames = blockFrames;
+        mDurationFrames = durationMs * sampleRate / 1000;
+
+        // one period of tone, little endian
+        int periodFrames = sampleRate / TONE_FREQUENCY;
+        mTone = new byte[periodFrames * getFrameSize()];
+        for (int i = 0; i < periodFrames; i++) {
+            short value = (short) (Math.sin(2 * Math.PI * i / periodFrames) * Short.MAX_VALUE / 2);
+            for (int c = 0; c < channelCount; c++) {
+                int pos = (i * channelCount + c) * BYTES_PER_SAMPLE;
+                mTone[pos] = (byte) value;
+                mTone[pos + 1] = (byte) (value >> 8);
+            }
+        }
+    }
+
+    /**
+     * set pacing speed. Should be called before {@link #open()}.
+     * @param speed multiple of real time, e.g. 1 for real time, 10 for 10x. 0 for no pacing.
+     * @return this
+     */
+    public SyntheticPcmNode setSpeed(double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("invalid speed: " + speed);
+        }
+
+        mSpeed = speed;
+        return this;
+    }
+
+    public int getFrameSize() {
+        return mChannelCount * BYTES_PER_SAMPLE;
+    }
+
+    /**
+     * @return frames provided since opened
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public void stop() {
+        mStopped = true;
+    }
+
+    @Override
+    public boolean requestEos() {
+        stop();
+        return true;
+    }
+
+    @Override
+    public int getLatencyClass() {
+        return LATENCY_REALTIME;
+    }
+
+    private int checkReady() {
+        if (!mOpened) {
+            return RESULT_NOT_OPEN;
+        }
+        if (mEof) {
+            return RESULT_ERROR; // read after eos
+        }
+        if (mSpeed > 0) {
+            long due = (long) (mFrameCount * 1000000000.0 / mSampleRate / mSpeed);
+            if (System.nanoTime() - mStartTime < due) {
+                return RESULT_RETRY;
+            }
+        }
+        return RESULT_OK;
+    }
+
+    private void fill(Data data) {
+        ByteBuffer buffer = AudioData.getBuffer(data);
+        assert buffer != null;
+        buffer.clear();
+
+        long pts = mFrameCount * 1000000L / mSampleRate;
+        if (mStopped || (mDurationFrames > 0 && mFrameCount >= mDurationFrames)) {
+            mEof = true;
+            data.setInfo(0, 0, pts, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return;
+        }
+
+        int size = mBlockFrames * getFrameSize();
+        int remain = size;
+        while (remain > 0) {
+            int count = Math.min(remain, mTone.length - mTonePos);
+            buffer.put(mTone, mTonePos, count);
+            mTonePos = (mTonePos + count) % mTone.length;
+            remain -= count;
+        }
+        buffer.flip();
+
+        data.setInfo(0, size, pts, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        mFrameCount += mBlockFrames;
+    }
+
+    @Override
+    public DataNode open() throws IOException {
+        if (isOpened()) {
+            return this; // already opened
+        }
+
+        mStopped = false;
+        mEof = false;
+        mFrameCount = 0;
+        mTonePos = 0;
+        mStartTime = System.nanoTime();
+        mOpened = true;
+        return this;
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mOpened;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOpened = false;
+        synchronized (mFreeBuffs) {
+            mFreeBuffs.clear();
+        }
+    }
+
+    @Override
+    public BufferedReader getBufferedReader() {
+        return mBufferedReader;
+    }
+
+    @Deprecated
+    @Override
+    public BufferedWriter getBufferedWriter() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Override
+    public DirectReader getDirectReader() {
+        return mDirectReader;
+    }
+
+    @Deprecated
+    @Override
+    public DirectWriter getDirectWriter() {
+        throw new InvalidParameterException("method not supported");
+    }
+
+    @Override
+    protected DataPort[] getPorts() {
+        return new DataPort[] {mBufferedReader, mDirectReader};
+    }
+}
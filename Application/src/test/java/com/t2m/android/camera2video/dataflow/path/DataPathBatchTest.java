@@ -0,0 +1,54 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.path;
+
+import android.media.MediaFormat;
+
+import com.t2m.android.camera2video.dataflow.nodes.FakeCodecNode;
+import com.t2m.android.camera2video.dataflow.nodes.MemorySinkNode;
+import com.t2m.android.camera2video.dataflow.nodes.SyntheticPcmNode;
+import com.t2m.android.camera2video.dataflow.task.DataFlowTask;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Batch mode of {@link DataPath} should write the same samples as single sample mode.
+ */
+public class DataPathBatchTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int BLOCK_FRAMES = 1024;
+    private static final int CODEC_BUFFER_COUNT = 8;
+    private static final long DURATION_MS = 2000;
+    private static final int BATCH_SIZE = 4;
+
+    /**
+     * codec provides format on config sample only, but muxer needs it on every sample
+     */
+    @Test
+    public void configFormatOnEverySample() {
+        SyntheticPcmNode source = new SyntheticPcmNode(SAMPLE_RATE, CHANNEL_COUNT, BLOCK_FRAMES, DURATION_MS)
+                .setSpeed(0);
+        FakeCodecNode codec = new FakeCodecNode(CODEC_BUFFER_COUNT, BLOCK_FRAMES * source.getFrameSize(), 0, 0, 0)
+                .setConfigFormat(new MediaFormat());
+        MemorySinkNode sink = new MemorySinkNode(0);
+
+        DataFlowTask task = new DataFlowTask("batch");
+        task.addNode(source)
+                .addNode(codec)
+                .addNode(sink)
+                .addPath(new AudioDataPath("batch.pcm", source.getDirectReader(), codec.getBufferedWriter()))
+                .addPath(new AudioDataPath("batch.codec", codec.getBufferedReader(), sink.getDirectWriter())
+                        .setBatchSize(BATCH_SIZE));
+        task.start();
+        task.waitForFinish();
+
+        assertEquals(DataFlowTask.RESULT_OK, task.getResult());
+        assertTrue("eos not written", sink.isEof());
+        assertEquals("config samples", 1, sink.getConfigCount());
+        assertTrue("no sample written", sink.getSampleCount() > BATCH_SIZE);
+        assertEquals("samples without format", 0, sink.getNoFormatCount());
+    }
+}
@@ -0,0 +1,147 @@
+/* Copyright (C) 2018 Tcl Corporation Limited */
+package com.t2m.android.camera2video.dataflow.task;
+
+import com.t2m.android.camera2video.dataflow.nodes.FakeCodecNode;
+import com.t2m.android.camera2video.dataflow.nodes.MemorySinkNode;
+import com.t2m.android.camera2video.dataflow.nodes.SyntheticPcmNode;
+import com.t2m.android.camera2video.dataflow.path.AudioDataPath;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Steady state of a graph should not allocate per sample.<br>
+ * Drives {@link SyntheticPcmNode} -> {@link FakeCodecNode} -> {@link MemorySinkNode} and counts heap
+ * allocated by path threads after warm up, using allocation counter of the JVM.<br>
+ * Deoptimization of JIT compiled code could allocate once in a while, so measure is repeated by
+ * rounds and one clean round is enough. Allocation per sample shows in every round.
+ */
+public class SteadyStateAllocationTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int BLOCK_FRAMES = 1024;
+    private static final int CODEC_BUFFER_COUNT = 4;
+
+    private static final int WARM_UP_SAMPLES = 2000;
+    private static final int MEASURE_SAMPLES = 10000;
+    private static final int MEASURE_ROUNDS = 5;
+    private static final long TIMEOUT_MS = 30000;
+
+    @Test
+    public void directSourceToBufferedCodec() throws Exception {
+        SyntheticPcmNode source = createSource();
+        FakeCodecNode codec = createCodec(source);
+        MemorySinkNode sink = new MemorySinkNode(0);
+        checkSteadyState("alloc.direct", source, codec, sink,
+                new AudioDataPath("alloc.direct.pcm", source.getDirectReader(), codec.getBufferedWriter()),
+                new AudioDataPath("alloc.direct.codec", codec.getBufferedReader(), sink.getDirectWriter()));
+    }
+
+    @Test
+    public void bufferedSourceToBufferedCodec() throws Exception {
+        SyntheticPcmNode source = createSource();
+        FakeCodecNode codec = createCodec(source);
+        MemorySinkNode sink = new MemorySinkNode(0);
+        checkSteadyState("alloc.buffered", source, codec, sink,
+                new AudioDataPath("alloc.buffered.pcm", source.getBufferedReader(), codec.getBufferedWriter()),
+                new AudioDataPath("alloc.buffered.codec", codec.getBufferedReader(), sink.getDirectWriter()));
+    }
+
+    private static SyntheticPcmNode createSource() {
+        return new SyntheticPcmNode(SAMPLE_RATE, CHANNEL_COUNT, BLOCK_FRAMES, 0).setSpeed(0);
+    }
+
+    private static FakeCodecNode createCodec(SyntheticPcmNode source) {
+        return new FakeCodecNode(CODEC_BUFFER_COUNT, BLOCK_FRAMES * source.getFrameSize(), 0, 0, 0);
+    }
+
+    private static void checkSteadyState(String name, SyntheticPcmNode source, FakeCodecNode codec,
+                                         MemorySinkNode sink, AudioDataPath pcmPath, AudioDataPath codecPath)
+            throws Exception {
+        com.sun.management.ThreadMXBean threadBean = getThreadBean();
+        assumeTrue("thread allocation counter not supported", threadBean != null);
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        DataFlowTask task = new DataFlowTask(name);
+        task.addNode(source)
+                .addNode(codec)
+                .addNode(sink)
+                .addPath(pcmPath)
+                .addPath(codecPath);
+        task.start();
+        try {
+            waitForSamples(sink, WARM_UP_SAMPLES);
+            long[] ids = findThreads(pcmPath.getName(), codecPath.getName());
+            long[] roundBytes = new long[MEASURE_ROUNDS];
+            for (int i = 0; i < MEASURE_ROUNDS; i++) {
+                long startBytes = sumAllocatedBytes(threadBean, ids);
+                waitForSamples(sink, sink.getSampleCount() + MEASURE_SAMPLES);
+                roundBytes[i] = sumAllocatedBytes(threadBean, ids) - startBytes;
+                if (roundBytes[i] == 0) {
+                    return;
+                }
+            }
+            fail("path threads allocated in every round of " + MEASURE_SAMPLES + " samples. bytes: "
+                    + Arrays.toString(roundBytes));
+        } finally {
+            task.cancel();
+            task.waitForFinish();
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        return threadBean.isThreadAllocatedMemorySupported() ? threadBean : null;
+    }
+
+    private static void waitForSamples(MemorySinkNode sink, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (sink.getSampleCount() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("timeout. samples: " + sink.getSampleCount() + ", expected: " + count);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * path threads are named by path
+     */
+    private static long[] findThreads(String... names) {
+        long[] ids = new long[names.length];
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            int index = Arrays.asList(names).indexOf(thread.getName());
+            if (index >= 0) {
+                ids[index] = thread.getId();
+            }
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == 0) {
+                fail("thread of path not found: " + names[i]);
+            }
+        }
+        return ids;
+    }
+
+    private static long sumAllocatedBytes(com.sun.management.ThreadMXBean threadBean, long[] ids) {
+        long bytes = 0;
+        for (long allocated : threadBean.getThreadAllocatedBytes(ids)) {
+            if (allocated < 0) {
+                fail("thread of path finished while measuring");
+            }
+            bytes += allocated;
+        }
+        return bytes;
+    }
+}